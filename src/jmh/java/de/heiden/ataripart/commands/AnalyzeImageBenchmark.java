@@ -0,0 +1,109 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import de.heiden.ataripart.output.OutputFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of the analyze command. Score is in MB/s.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar AnalyzeImageBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzeImageBenchmark {
+    /**
+     * Size of the benchmark image in MB.
+     */
+    private static final int SIZE_MB = 1024;
+
+    /**
+     * Number of xgm root sectors in the benchmark image.
+     */
+    private static final int XGM_ROOT_SECTORS = 16;
+
+    /**
+     * Memory map the image?.
+     */
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    /**
+     * Number of threads. 0 uses the number of available processors.
+     */
+    @Param({"1", "0"})
+    public int threads;
+
+    /**
+     * Output format.
+     */
+    @Param({"TEXT", "JSONL", "CSV"})
+    public OutputFormat format;
+
+    /**
+     * Benchmark image.
+     */
+    private Path file;
+
+    /**
+     * Options of the scan.
+     */
+    private ScanOptions options;
+
+    /**
+     * Original standard output.
+     */
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempDirectory("ataripart").resolve("benchmark.img");
+        ImageGenerator generator = new ImageGenerator(SIZE_MB * 1024L * 1024L, XGM_ROOT_SECTORS + 3, 42);
+        generator.setNoise(1.0);
+        generator.generate(file);
+
+        options = new ScanOptions();
+        options.setThreads(threads);
+        options.setReadAhead(0);
+
+        // Discard the output of the analyze command.
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        Files.delete(file);
+        Files.delete(file.getParent());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE_MB)
+    public void analyze() throws IOException {
+        new AnalyzeImage().analyze(file, mapped, format, false, options);
+    }
+}
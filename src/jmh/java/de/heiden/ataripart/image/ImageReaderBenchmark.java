@@ -0,0 +1,114 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares channel reads with memory mapped reads.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar ImageReaderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageReaderBenchmark {
+    /**
+     * Size of the benchmark image in MB.
+     */
+    private static final int SIZE_MB = 256;
+
+    /**
+     * Number of xgm root sectors in the benchmark image.
+     */
+    private static final int XGM_ROOT_SECTORS = 16;
+
+    /**
+     * Read via memory mapping or via channel?.
+     */
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    /**
+     * Benchmark image filled with random data and a chain of xgm root sectors.
+     */
+    private Path file;
+
+    /**
+     * Reader for the benchmark image.
+     */
+    private ImageReader image;
+
+    /**
+     * Random sector offsets to read root sectors from.
+     */
+    private long[] offsets;
+
+    /**
+     * Index of the next offset.
+     */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempDirectory("ataripart").resolve("benchmark.img");
+        ImageGenerator generator = new ImageGenerator(SIZE_MB * 1024L * 1024L, XGM_ROOT_SECTORS + 3, 42);
+        generator.setNoise(1.0);
+        generator.generate(file);
+
+        Random random = new Random(42);
+        offsets = new long[4096];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextInt(SIZE_MB * 2048) * 512L;
+        }
+
+        image = ImageReader.open(file, mapped);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        image.close();
+        Files.delete(file);
+        Files.delete(file.getParent());
+    }
+
+    /**
+     * Read root sectors including boot sectors from random offsets.
+     */
+    @Benchmark
+    public RootSector readRootSector() throws IOException {
+        next = (next + 1) & (offsets.length - 1);
+        return image.readRootSector(0, 0, offsets[next]);
+    }
+
+    /**
+     * Read master root sector and the whole xgm chain.
+     */
+    @Benchmark
+    public List<RootSector> readRootSectors() throws IOException {
+        return image.readRootSectors();
+    }
+
+    /**
+     * Scan the whole image single threaded. Score is in MB/s.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SIZE_MB)
+    public void scan(Blackhole blackhole) throws IOException {
+        new ImageScanner(image, 1).scan(blackhole::consume);
+    }
+}
@@ -0,0 +1,62 @@
+package de.heiden.ataripart.image;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the word parallel checksum with the word by word reference implementation.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar IntUtilsBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntUtilsBenchmark {
+    /**
+     * Use a direct buffer?.
+     */
+    @Param({"false", "true"})
+    public boolean direct;
+
+    /**
+     * Byte order of the buffer.
+     */
+    @Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+    public String order;
+
+    /**
+     * Sector with random data.
+     */
+    private ByteBuffer sector;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = new byte[512];
+        new Random(42).nextBytes(bytes);
+        sector = direct ? ByteBuffer.allocateDirect(512) : ByteBuffer.allocate(512);
+        sector.order("BIG_ENDIAN".equals(order) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        sector.put(bytes);
+        sector.clear();
+    }
+
+    @Benchmark
+    public int checksumInt16() {
+        return IntUtils.checksumInt16(sector, 0, 512);
+    }
+
+    @Benchmark
+    public int checksumInt16Words() {
+        return IntUtils.checksumInt16Words(sector, 0, 512);
+    }
+}
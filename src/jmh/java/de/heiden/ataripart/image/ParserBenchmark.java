@@ -0,0 +1,80 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.ahdi.AhdiBootSector;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the parsers of root sectors, partition infos and boot sectors.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar ParserBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    /**
+     * Root sector with two partitions.
+     */
+    private ByteBuffer rootSector;
+
+    /**
+     * FAT16 boot sector.
+     */
+    private ByteBuffer bootSector;
+
+    @Setup
+    public void setUp() {
+        rootSector = ByteBuffer.allocate(512);
+        IntUtils.setInt32(rootSector, 0x1C2, 2048 * 1024);
+        IntUtils.setInt8(rootSector, 0x1C6, 0x01);
+        StringUtils.setString(rootSector, 0x1C6 + 1, "GEM");
+        IntUtils.setInt32(rootSector, 0x1C6 + 4, 1);
+        IntUtils.setInt32(rootSector, 0x1C6 + 8, 2048 * 16);
+        IntUtils.setInt8(rootSector, 0x1D2, 0x01);
+        StringUtils.setString(rootSector, 0x1D2 + 1, "XGM");
+        IntUtils.setInt32(rootSector, 0x1D2 + 4, 2048 * 16 + 1);
+        IntUtils.setInt32(rootSector, 0x1D2 + 8, 2048 * 16);
+
+        bootSector = new AhdiBootSector(16 * 1024 * 1024, "BENCHMARK", 42).createBootSector();
+    }
+
+    @Benchmark
+    public RootSector rootSectorParse() {
+        return RootSector.parse(0, 0, rootSector);
+    }
+
+    @Benchmark
+    public boolean rootSectorIsCandidate() {
+        return RootSector.isCandidate(rootSector, 0);
+    }
+
+    @Benchmark
+    public Partition partitionParse() {
+        return Partition.parse(0, rootSector, 0x1C6);
+    }
+
+    @Benchmark
+    public BootSector bootSectorParse() {
+        return BootSector.parse(bootSector);
+    }
+
+    @Benchmark
+    public int checksumInt16() {
+        return IntUtils.checksumInt16(rootSector, 0, 512);
+    }
+
+    @Benchmark
+    public String stringUtilsGetString() {
+        return StringUtils.getString(bootSector, 0x2B, 11);
+    }
+}
@@ -0,0 +1,115 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Throughput of scanning a whole image with and without read-ahead, with cold and warm page cache. Score is in MB/s.
+ * <p>
+ * A cold page cache gets dropped before each invocation via /proc/sys/vm/drop_caches,
+ * which requires Linux and root privileges.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar ReadAheadBenchmark
+ * sudo java -jar target/benchmarks.jar ReadAheadBenchmark -p cache=cold
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadAheadBenchmark {
+    /**
+     * Size of the benchmark image in MB.
+     */
+    private static final int SIZE_MB = 1024;
+
+    /**
+     * Number of xgm root sectors in the benchmark image.
+     */
+    private static final int XGM_ROOT_SECTORS = 16;
+
+    /**
+     * Number of read-ahead buffers. 0 for no read-ahead.
+     */
+    @Param({"0", "2", "4"})
+    public int readAhead;
+
+    /**
+     * Size of the buffers in KB.
+     */
+    @Param({"1024", "16384"})
+    public int bufferSize;
+
+    /**
+     * Number of threads.
+     */
+    @Param({"1", "2"})
+    public int threads;
+
+    /**
+     * State of the page cache: "warm" or "cold". "cold" has to be requested explicitly, it needs root privileges.
+     */
+    @Param({"warm"})
+    public String cache;
+
+    /**
+     * Benchmark image.
+     */
+    private Path file;
+
+    /**
+     * Reader for the benchmark image.
+     */
+    private ImageReader image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempDirectory("ataripart").resolve("benchmark.img");
+        ImageGenerator generator = new ImageGenerator(SIZE_MB * 1024L * 1024L, XGM_ROOT_SECTORS + 3, 42);
+        generator.setNoise(1.0);
+        generator.generate(file);
+
+        // Dirty pages cannot be dropped.
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.force(true);
+        }
+
+        image = ImageReader.open(file, false);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropPageCache() throws IOException {
+        if ("cold".equals(cache)) {
+            Files.write(Paths.get("/proc/sys/vm/drop_caches"), "1".getBytes(US_ASCII));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        image.close();
+        Files.delete(file);
+        Files.delete(file.getParent());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE_MB)
+    public void scan(Blackhole blackhole) throws IOException {
+        new ImageScanner(image, threads, bufferSize * 1024, readAhead).scan(blackhole::consume);
+    }
+}
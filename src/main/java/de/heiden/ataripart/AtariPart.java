@@ -2,13 +2,23 @@ package de.heiden.ataripart;
 
 import de.heiden.ataripart.commands.AnalyzeImage;
 import de.heiden.ataripart.commands.ExtractFiles;
+import de.heiden.ataripart.commands.ExtractOptions;
 import de.heiden.ataripart.commands.ExtractPartitions;
+import de.heiden.ataripart.commands.GenerateImage;
+import de.heiden.ataripart.commands.ListOptions;
 import de.heiden.ataripart.commands.ListPartitions;
+import de.heiden.ataripart.commands.OutputOptions;
+import de.heiden.ataripart.commands.PartitionOptions;
+import de.heiden.ataripart.commands.ProcessImages;
+import de.heiden.ataripart.commands.ProcessImages.Action;
+import de.heiden.ataripart.commands.ScanOptions;
+import de.heiden.ataripart.commands.ServeImages;
 import picocli.CommandLine;
 import picocli.CommandLine.*;
 
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Atari partition analyzer.
@@ -27,6 +37,7 @@ public class AtariPart {
     public static void main(String[] args) {
         try {
             CommandLine cl = new CommandLine(new AtariPart());
+            cl.setCaseInsensitiveEnumValuesAllowed(true);
             cl.parseWithHandler(new RunLast(), args);
 
         } catch (ExecutionException e) {
@@ -42,19 +53,24 @@ public class AtariPart {
 
     @Command(description = "Search a whole hard disk image for root sectors.")
     private void analyze(
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk image") boolean mapped,
+            @Option(names = {"--stats"}, description = "Report progress and statistics to stderr") boolean stats,
+            @Mixin OutputOptions output,
+            @Mixin ScanOptions options,
             @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image)
             throws Exception {
 
-        new AnalyzeImage().analyze(image);
+        new AnalyzeImage().analyze(image, mapped, output.getFormat(), stats, options);
     }
 
     @Command(description = "List all root sectors and their partitions, starting with the MBR.")
     private void list(
-            @Option(names = {"-b", "--backup"}, description = "Display backup root sectors, if any") boolean backup,
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk image") boolean mapped,
+            @Mixin ListOptions options,
             @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image)
             throws Exception {
 
-        new ListPartitions().list(image, backup);
+        new ListPartitions().list(image, mapped, options.isBackup(), options.getFormat());
     }
 
     /**
@@ -62,23 +78,74 @@ public class AtariPart {
      */
     @Command(description = "Extract all partitions to a directory.")
     private void partitions(
-            @Option(names = {"-c", "--convert"}, description = "Convert boot sectors to MS DOS format") boolean convertBootSectors,
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk image") boolean mapped,
+            @Mixin PartitionOptions options,
+            @Option(names = {"--stats"}, description = "Report progress and statistics to stderr") boolean stats,
             @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image,
-            @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy partition contents to", defaultValue = "./atari") Path destinationDir)
+            @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy partition contents to", defaultValue = ExtractPartitions.DESTINATION) Path destinationDir)
             throws Exception {
 
-        new ExtractPartitions().extract(image, convertBootSectors, destinationDir);
+        new ExtractPartitions().extract(image, mapped, destinationDir, stats, options);
     }
 
     /**
      * Copy all files from all partitions of the hard disk image to a directory.
      */
-    @Command(description = "Extract all files from all partitions to a directory. Needs mtools installed.")
+    @Command(description = "Extract all files from all partitions to a directory.")
     private void files(
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk image") boolean mapped,
+            @Option(names = {"--stats"}, description = "Report progress and statistics to stderr") boolean stats,
             @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image,
-            @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy files to", defaultValue = "./atari") Path destinationDir)
+            @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy files to", defaultValue = ExtractPartitions.DESTINATION) Path destinationDir)
             throws Exception {
 
-        new ExtractFiles().extract(image, destinationDir);
+        new ExtractFiles().extract(image, mapped, destinationDir, stats);
+    }
+
+    /**
+     * Run a command on many hard disk images.
+     */
+    @Command(description = "Run a command on many hard disk images in one process.")
+    private void batch(
+            @Option(names = {"-a", "--action"}, description = "Command to run on each image: list, analyze, partitions or files", defaultValue = "list") Action action,
+            @Option(names = {"-d", "--destination"}, description = "Directory to write the results and the report to", defaultValue = "./batch") Path destinationDir,
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk images") boolean mapped,
+            @Mixin OutputOptions output,
+            @Mixin ExtractOptions options,
+            @Option(names = {"-j", "--jobs"}, description = "Number of images to process concurrently, 0 for number of processors", defaultValue = "0") int jobs,
+            @Option(names = {"--io"}, description = "Maximum number of images to process concurrently per file system", defaultValue = "2") int io,
+            @Parameters(index = "0..*", paramLabel = "images", arity = "1..*", description = "Hard disk images, directories, globs or manifests (@file)") List<String> sources)
+            throws Exception {
+
+        new ProcessImages().process(sources, action, destinationDir, mapped, output, options, jobs, io);
+    }
+
+    @Command(description = "Serve requests on a local socket, keeping parsed images open between requests.")
+    private void serve(
+            @Option(names = {"-p", "--port"}, description = "Port to listen on, on the loopback interface only", defaultValue = "7437") int port,
+            @Option(names = {"-m", "--mmap"}, description = "Memory map the hard disk images") boolean mapped,
+            @Option(names = {"--cache"}, description = "Maximum number of images to keep open", defaultValue = "16") int cacheSize,
+            @Option(names = {"-t", "--threads"}, description = "Number of requests to handle concurrently, 0 for number of processors", defaultValue = "0") int threads,
+            @Option(names = {"--token-file"}, description = "File with the token clients have to send, defaults to ~/.ataripart/serve.token") Path tokenFile)
+            throws Exception {
+
+        new ServeImages().serve(port, mapped, cacheSize, threads, tokenFile);
+    }
+
+    /**
+     * Create a synthetic hard disk image.
+     */
+    @Command(description = "Create a synthetic hard disk image for benchmarks and load tests.")
+    private void generate(
+            @Option(names = {"-s", "--size"}, description = "Size of the image, e.g. 4G", defaultValue = "1G") String size,
+            @Option(names = {"-p", "--partitions"}, description = "Number of partitions", defaultValue = "4") int partitions,
+            @Option(names = {"--seed"}, description = "Seed for all random contents", defaultValue = "0") long seed,
+            @Option(names = {"-n", "--noise"}, description = "Fraction of free blocks to fill with random noise", defaultValue = "0.1") double noise,
+            @Option(names = {"-f", "--files"}, description = "Number of files per directory", defaultValue = "8") int files,
+            @Option(names = {"--no-backup"}, description = "Do not create backup root sectors") boolean noBackup,
+            @Parameters(index = "0", paramLabel = "image", description = "Hard disk image to create") Path image)
+            throws Exception {
+
+        new GenerateImage().generate(image, size, partitions, seed, noise, files, !noBackup);
     }
 }
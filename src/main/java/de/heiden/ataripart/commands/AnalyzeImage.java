@@ -1,54 +1,233 @@
 package de.heiden.ataripart.commands;
 
 import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.ImageStats;
+import de.heiden.ataripart.image.ImageScanner;
 import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.PriorityScan;
 import de.heiden.ataripart.image.RootSector;
+import de.heiden.ataripart.image.ScanCache;
+import de.heiden.ataripart.image.ScanCheckpoint;
+import de.heiden.ataripart.image.ScanGuide;
+import de.heiden.ataripart.output.OutputFormat;
+import de.heiden.ataripart.output.RecordWriter;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
-import static java.lang.System.out;
+import static java.lang.System.err;
 
 /**
  * The analyze command searches a whole disk image for root sectors.
  */
 public class AnalyzeImage {
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
     /**
      * Hard disk image.
      */
     private ImageReader image;
 
+    /**
+     * Writer for machine readable output. Null for text output.
+     */
+    private RecordWriter records;
+
+    /**
+     * Constructor, writing to stdout.
+     */
+    public AnalyzeImage() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public AnalyzeImage(PrintStream out) {
+        this.out = out;
+    }
+
     /**
      * Scan disk image for root sectors.
      * <p>
      * Does NOT evaluate partition information to follow XGM partitions.
      *
      * @param file The file with the hard disk image.
+     * @param mapped Memory map the hard disk image?.
+     * @param format Output format.
+     * @param showStats Report progress and statistics to stderr?.
+     * @param options Options of the scan.
      */
-    public void analyze(Path file) throws IOException {
-        image = new ImageReader(file);
+    public void analyze(Path file, boolean mapped, OutputFormat format, boolean showStats, ScanOptions options) throws IOException {
+        try (ImageReader image = ImageReader.open(file, mapped)) {
+            analyze(image, format, showStats, options);
+        }
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024 * 1024);
+    /**
+     * Scan an open disk image for root sectors.
+     * <p>
+     * Writes checkpoints during the scan only if requested, so an interrupted scan can be resumed.
+     *
+     * @param image Hard disk image. Does not get closed.
+     * @param format Output format.
+     * @param showStats Report progress and statistics to stderr?.
+     * @param options Options of the scan.
+     */
+    public void analyze(ImageReader image, OutputFormat format, boolean showStats, ScanOptions options) throws IOException {
+        boolean cache = options.isCache();
+        boolean guided = options.isGuided();
+        boolean prioritized = options.isPrioritized();
+        if (cache && guided) {
+            // The cache needs the results of all regions.
+            throw new IllegalArgumentException("Guided scans cannot be cached.");
+        }
+        if ((cache || options.isCheckpoint()) && prioritized) {
+            // Results are not reported in order of their offset.
+            throw new IllegalArgumentException("Prioritized scans cannot be cached or resumed.");
+        }
 
-        long diskOffset = 0;
-        for (int num; (num = image.read(diskOffset, buffer)) >= 0; ) {
-            for (int bufferOffset = 0; bufferOffset + 512 <= num; bufferOffset += 512, diskOffset += 512) {
-                buffer.position(bufferOffset);
-                RootSector rootSector = RootSector.parse(diskOffset, diskOffset, buffer);
-                if (rootSector.hasValidPartitions()) {
-                    out.print(diskOffset);
-                    out.print(": Possible ");
-                    out.println(rootSector.toString());
+        this.image = image;
+        ImageScanner scanner = new ImageScanner(image, options.getThreads(), options.getBufferSize(), options.getReadAhead());
+        ImageStats stats = showStats ? new ImageStats(image.size()) : null;
+        if (stats != null) {
+            image.setStats(stats);
+            stats.start(err);
+        }
+        try {
+            ScanCache scanCache = cache ? ScanCache.open(image, scanner.getChunkSize()) : null;
+            ScanCheckpoint checkpoint = null;
+            if (scanCache != null && scanCache.isUnchanged()) {
+                if (stats != null) {
+                    // Just the cached root sectors get read.
+                    stats.addTotal(-image.size());
+                }
+            } else if (options.isCheckpoint()) {
+                checkpoint = ScanCheckpoint.open(image, options.isResume(), scanner.getChunkSize());
+                if (stats != null) {
+                    stats.addTotal(-checkpoint.getStart());
+                }
+            }
 
-                    for (Partition partition : rootSector.getPartitions()) {
-                        out.println(partition.toString());
+            Consumer<RootSector> consumer = format == OutputFormat.TEXT ? this::display : this::write;
+            if (guided) {
+                ScanGuide guide = new ScanGuide(image, scanner, options.isProbe());
+                Consumer<RootSector> output = consumer;
+                consumer = rootSector -> {
+                    try {
+                        guide.found(rootSector);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                    output.accept(rootSector);
+                };
+            }
+
+            try (RecordWriter records = format == OutputFormat.TEXT ? null : RecordWriter.create(format, out)) {
+                this.records = records;
+                if (!prioritized) {
+                    scan(scanner, consumer, scanCache, checkpoint);
+                } else if (!new PriorityScan(image, scanner).scan(consumer, options.getTimeLimit())) {
+                    err.println("Time limit exceeded, the image has not been searched completely.");
                 }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                this.records = null;
             }
-            buffer.clear();
+
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+            // The regions before a resumed scan have not been hashed.
+            if (scanCache != null && !scanCache.isUnchanged() && (checkpoint == null || checkpoint.getStart() == 0)) {
+                scanCache.save();
+            }
+        } finally {
+            if (stats != null) {
+                image.setStats(null);
+                stats.stop(err);
+            }
+        }
+    }
+
+    /**
+     * Scan the image, resuming at the checkpoint, if any.
+     *
+     * @param scanner Scanner.
+     * @param consumer Consumer for all found root sectors.
+     * @param cache Results of previous scans. Null to scan without cache.
+     * @param checkpoint Checkpoint to resume at and to update. Null to scan without checkpoints.
+     */
+    private void scan(ImageScanner scanner, Consumer<RootSector> consumer, ScanCache cache, ScanCheckpoint checkpoint) throws IOException {
+        if (checkpoint == null) {
+            scanner.scan(consumer, cache);
+            return;
+        }
+
+        // Repeat the root sectors found before the checkpoint, so the output is the same as without interruption.
+        for (long offset : checkpoint.getHits()) {
+            consumer.accept(scanner.readCandidate(offset));
+        }
+        try {
+            scanner.scan(checkpoint.getStart(), rootSector -> {
+                checkpoint.found(rootSector);
+                consumer.accept(rootSector);
+            }, cache, position -> {
+                try {
+                    checkpoint.scanned(position);
+                } catch (IOException e) {
+                    err.println("Failed to write checkpoint: " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            // Keep the progress, e.g. after a read timeout of the disk.
+            try {
+                checkpoint.save();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Display a possible root sector.
+     *
+     * @param rootSector Root sector.
+     */
+    private void display(RootSector rootSector) {
+        out.print(rootSector.getOffset());
+        out.print(": Possible ");
+        out.println(rootSector.toString());
+
+        for (Partition partition : rootSector.getPartitions()) {
+            out.println(partition.toString());
         }
+    }
 
-        image.close();
+    /**
+     * Write a possible root sector in a machine readable format.
+     *
+     * @param rootSector Root sector.
+     */
+    private void write(RootSector rootSector) {
+        try {
+            records.beginRootSector("candidate", rootSector);
+            for (Partition partition : rootSector.getPartitions()) {
+                records.partition(Integer.toString(partition.getNumber()), partition);
+            }
+            records.endRootSector();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
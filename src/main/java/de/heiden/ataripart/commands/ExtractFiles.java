@@ -1,81 +1,109 @@
 package de.heiden.ataripart.commands;
 
 import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.ImageStats;
 import de.heiden.ataripart.image.Partition;
 import de.heiden.ataripart.image.RootSector;
+import de.heiden.ataripart.image.fat.FatFileSystem;
+import de.heiden.ataripart.jfr.ExtractFilesEvent;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
-import static java.lang.System.out;
+import static java.lang.System.err;
 
 /**
  * Extract all files from all partitions.
  */
 public class ExtractFiles {
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
     /**
      * Hard disk image.
      */
     private ImageReader image;
 
+    /**
+     * Constructor, writing to stdout.
+     */
+    public ExtractFiles() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public ExtractFiles(PrintStream out) {
+        this.out = out;
+    }
+
     /**
      * Copy all files from all partitions of the hard disk image to a directory.
      *
      * @param file The file with the hard disk image.
+     * @param mapped Memory map the hard disk image?.
      * @param destinationDir Directory to write extracted files to.
+     * @param showStats Report progress and statistics to stderr?.
      */
-    public void extract(Path file, Path destinationDir) throws Exception {
-        image = new ImageReader(file);
-
-        List<RootSector> rootSectors = image.readRootSectors();
-
-        out.println("Using hard disk image " + file.toAbsolutePath());
-        out.println("Creating extraction directory " + destinationDir.toAbsolutePath());
-        Files.createDirectories(destinationDir);
-
-        char partitionName = 'c';
-        for (RootSector rootSector : rootSectors) {
-            for (Partition partition : rootSector.getRealPartitions()) {
-                String prefix = "Partition " + Character.toUpperCase(partitionName) + ": ";
-
-                Path partitionDir = destinationDir.resolve(Character.toString(partitionName));
-                out.println(prefix + "Creating directory " + partitionDir.toAbsolutePath());
-                Files.createDirectories(partitionDir);
-                out.println(prefix + "Copying contents to " + partitionDir.toAbsolutePath());
-                exec("mcopy",
-                        "-snmi",
-                        // From this image file at the given offset.
-                        file.toAbsolutePath().toString() + "@@" + partition.getAbsoluteStart(),
-                        // Everything from partition.
-                        "::*",
-                        // Copy into this directory.
-                        partitionDir.toAbsolutePath().toString());
-
-                partitionName++;
-            }
+    public void extract(Path file, boolean mapped, Path destinationDir, boolean showStats) throws IOException {
+        try (ImageReader image = ImageReader.open(file, mapped)) {
+            extract(image, image.readRootSectors(), destinationDir, showStats);
         }
-
-        image.close();
     }
 
     /**
-     * Synchronously execute system command.
+     * Copy all files from all partitions of an open hard disk image to a directory.
      *
-     * @param command Command
+     * @param image Hard disk image. Does not get closed.
+     * @param rootSectors Master root sector and all following xgm root sectors, see {@link ImageReader#readRootSectors()}.
+     * @param destinationDir Directory to write extracted files to.
+     * @param showStats Report progress and statistics to stderr?.
      */
-    private void exec(String... command) throws Exception {
-        ProcessBuilder builder = new ProcessBuilder();
-        builder.command(command);
-        // Ignore invalid boot sectors. Atari boot sectors seem to be not compatible with MS DOS.
-        builder.environment().put("MTOOLS_SKIP_CHECK", "1");
-        builder.inheritIO();
-        Process p = builder.start();
-        int result = p.waitFor();
-        if (result != 0) {
-            throw new IOException("Command failed with exit code " + result);
+    public void extract(ImageReader image, List<RootSector> rootSectors, Path destinationDir, boolean showStats) throws IOException {
+        this.image = image;
+        // The amount of data in the files is not known in advance, so there is no ETA.
+        ImageStats stats = showStats ? new ImageStats(0) : null;
+        if (stats != null) {
+            image.setStats(stats);
+            stats.start(err);
+        }
+        try {
+            out.println("Using hard disk image " + image.getFile().toAbsolutePath());
+            out.println("Creating extraction directory " + destinationDir.toAbsolutePath());
+            Files.createDirectories(destinationDir);
+
+            char partitionName = 'c';
+            for (RootSector rootSector : rootSectors) {
+                for (Partition partition : rootSector.getRealPartitions()) {
+                    String prefix = "Partition " + Character.toUpperCase(partitionName) + ": ";
+
+                    Path partitionDir = destinationDir.resolve(Character.toString(partitionName));
+                    out.println(prefix + "Creating directory " + partitionDir.toAbsolutePath());
+                    Files.createDirectories(partitionDir);
+                    out.println(prefix + "Copying contents to " + partitionDir.toAbsolutePath());
+                    ExtractFilesEvent event = ExtractFilesEvent.start();
+                    FatFileSystem fileSystem = new FatFileSystem(image, partition);
+                    int files = fileSystem.copyAll(partitionDir, file ->
+                            out.println(prefix + "Warning: Cluster chain of " + partitionDir.relativize(file) + " is too short, copied the readable part only"));
+                    event.record(Character.toString(Character.toUpperCase(partitionName)), files);
+                    out.println(prefix + "Copied " + files + " files");
+
+                    partitionName++;
+                }
+            }
+        } finally {
+            if (stats != null) {
+                image.setStats(null);
+                stats.stop(err);
+            }
         }
-        Thread.sleep(1);
     }
 }
@@ -0,0 +1,165 @@
+package de.heiden.ataripart.commands;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Options of extracting partitions.
+ * <p>
+ * The fields hold the defaults. The batch command uses this class as mixin,
+ * the partitions command of the command line and the server its subclass {@link PartitionOptions}.
+ */
+public class ExtractOptions {
+    /**
+     * Attempt to convert boot sectors to MS DOS format?.
+     */
+    @Option(names = {"-c", "--convert"}, description = "Convert boot sectors to MS DOS format")
+    private boolean convertBootSectors;
+
+    /**
+     * Create sparse partition images by skipping all zero blocks?.
+     */
+    @Option(names = {"-s", "--sparse"}, description = "Create sparse partition images by skipping all zero blocks")
+    private boolean sparse;
+
+    /**
+     * Copy only the boot sector, the FATs, the root directory and the allocated clusters?.
+     */
+    @Option(names = {"-u", "--used"}, description = "Copy only the allocated clusters, leave free clusters as holes")
+    private boolean used;
+
+    /**
+     * Gzip compress the partition images with all available processors?.
+     */
+    @Option(names = {"-z", "--gzip"}, description = "Gzip compress the partition images in parallel")
+    private boolean compress;
+
+    /**
+     * Number of partitions to extract concurrently. 0 uses the number of available processors.
+     */
+    private int jobs = 1;
+
+    /**
+     * Compute SHA-256 and CRC32C of the partition images?.
+     */
+    @Option(names = {"--digest"}, description = "Write SHA-256 and CRC32C of the partition images to digests.txt")
+    private boolean digest;
+
+    /**
+     * Read back the partition images and compare their digests?.
+     */
+    @Option(names = {"--verify"}, description = "Read back the partition images and verify their digests")
+    private boolean verify;
+
+    /**
+     * Attempt to convert boot sectors to MS DOS format?.
+     */
+    public boolean isConvertBootSectors() {
+        return convertBootSectors;
+    }
+
+    /**
+     * Set whether to convert boot sectors to MS DOS format.
+     *
+     * @param convertBootSectors Convert boot sectors?.
+     */
+    public void setConvertBootSectors(boolean convertBootSectors) {
+        this.convertBootSectors = convertBootSectors;
+    }
+
+    /**
+     * Create sparse partition images by skipping all zero blocks?.
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * Set whether to create sparse partition images.
+     *
+     * @param sparse Sparse partition images?.
+     */
+    public void setSparse(boolean sparse) {
+        this.sparse = sparse;
+    }
+
+    /**
+     * Copy only the boot sector, the FATs, the root directory and the allocated clusters?.
+     */
+    public boolean isUsed() {
+        return used;
+    }
+
+    /**
+     * Set whether to copy only the parts of the partitions in use by the file system.
+     *
+     * @param used Copy used parts only?.
+     */
+    public void setUsed(boolean used) {
+        this.used = used;
+    }
+
+    /**
+     * Gzip compress the partition images with all available processors?.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Set whether to gzip compress the partition images.
+     *
+     * @param compress Compress?.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Number of partitions to extract concurrently. 0 uses the number of available processors.
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Set number of partitions to extract concurrently.
+     *
+     * @param jobs Number of partitions. 0 uses the number of available processors.
+     */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * Compute SHA-256 and CRC32C of the partition images?.
+     * Implied by {@link #isVerify()}.
+     */
+    public boolean isDigest() {
+        return digest || verify;
+    }
+
+    /**
+     * Set whether to compute SHA-256 and CRC32C of the partition images.
+     *
+     * @param digest Compute digests?.
+     */
+    public void setDigest(boolean digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Read back the partition images and compare their digests?.
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * Set whether to read back the partition images and compare their digests.
+     *
+     * @param verify Verify?.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+}
@@ -1,61 +1,257 @@
 package de.heiden.ataripart.commands;
 
 import de.heiden.ataripart.image.*;
+import de.heiden.ataripart.image.digest.Digest;
+import de.heiden.ataripart.image.digest.DigestPipeline;
+import de.heiden.ataripart.image.fat.FatFileSystem;
+import de.heiden.ataripart.image.gzip.ParallelGzipChannel;
 import de.heiden.ataripart.image.msdos.MsDosMbr;
 import de.heiden.ataripart.image.msdos.MsDosPartition;
+import de.heiden.ataripart.jfr.PartitionStepEvent;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
-import static java.lang.System.out;
-import static java.nio.file.StandardOpenOption.READ;
+import static java.lang.System.err;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Extract all partitions.
  */
 public class ExtractPartitions {
+    /**
+     * Number of bytes to copy between progress reports.
+     */
+    private static final long PROGRESS_STEP = 64 * 1024 * 1024;
+
+    /**
+     * Number of bytes to read at once for sparse or digested partition images.
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Size of blocks which are not written for sparse partition images, if they are all zero.
+     */
+    private static final int SPARSE_BLOCK_SIZE = 4096;
+
+    /**
+     * Zeros, for skipped parts of compressed partition images.
+     */
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(64 * 1024);
+
+    /**
+     * Name of the manifest with the digests of all partition images.
+     */
+    public static final String MANIFEST = "digests.txt";
+
+    /**
+     * Default directory to extract to, also used by the files command.
+     */
+    public static final String DESTINATION = "./atari";
+
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
     /**
      * Hard disk image.
      */
     private ImageReader image;
 
+    /**
+     * Executor to compress partition images with. Null, if partition images should not be compressed.
+     */
+    private ExecutorService compressor;
+
+    /**
+     * Number of threads of {@link #compressor}.
+     */
+    private int compressorThreads;
+
+    /**
+     * Executor to run the digests on. Null, if partition images should not be digested.
+     */
+    private ExecutorService digester;
+
+    /**
+     * Read back written partition images and compare their digests?.
+     */
+    private boolean verify;
+
+    /**
+     * Constructor, writing to stdout.
+     */
+    public ExtractPartitions() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public ExtractPartitions(PrintStream out) {
+        this.out = out;
+    }
+
     /**
      * Extract all partitions of the hard disk image to a directory.
+     * <p>
+     * Each partition is written to a temporary file first, which is renamed after the partition has been copied completely.
+     * So a failed partition never leaves a partial image behind and does not affect the other partitions.
      *
      * @param file The file with the hard disk image.
-     * @param convertBootSectors Attempt to convert boot sectors to MS DOS format?.
+     * @param mapped Memory map the hard disk image?.
      * @param destinationDir Directory to write extracted partitions to.
+     * @param showStats Report progress and statistics to stderr?.
+     * @param options Options of the extraction. With digests, they are written to {@value #MANIFEST}.
      */
-    public void extract(Path file, boolean convertBootSectors, Path destinationDir) throws Exception {
-        image = new ImageReader(file);
-
-        List<RootSector> rootSectors = image.readRootSectors();
+    public void extract(Path file, boolean mapped, Path destinationDir, boolean showStats, ExtractOptions options) throws IOException {
+        try (ImageReader image = ImageReader.open(file, mapped)) {
+            extract(image, image.readRootSectors(), destinationDir, showStats, options);
+        }
+    }
 
-        out.println("Using hard disk image " + file.toAbsolutePath());
-        out.println("Creating extraction directory " + destinationDir.toAbsolutePath());
-        Files.createDirectories(destinationDir);
-        if (convertBootSectors) {
-            out.println("Converting boot sectors to MS DOS format.");
+    /**
+     * Extract all partitions of an open hard disk image to a directory.
+     *
+     * @param image Hard disk image. Does not get closed.
+     * @param rootSectors Master root sector and all following xgm root sectors, see {@link ImageReader#readRootSectors()}.
+     * @see #extract(Path, boolean, Path, boolean, ExtractOptions)
+     */
+    public void extract(ImageReader image, List<RootSector> rootSectors, Path destinationDir, boolean showStats, ExtractOptions options) throws IOException {
+        boolean convertBootSectors = options.isConvertBootSectors();
+        boolean sparse = options.isSparse();
+        boolean used = options.isUsed();
+        boolean compress = options.isCompress();
+        boolean verify = options.isVerify();
+        this.image = image;
+        ImageStats stats = showStats ? new ImageStats(0) : null;
+        if (stats != null) {
+            image.setStats(stats);
+            stats.start(err);
+        }
+        if (compress) {
+            compressorThreads = Runtime.getRuntime().availableProcessors();
+            compressor = Executors.newFixedThreadPool(compressorThreads);
         }
+        if (options.isDigest()) {
+            // Each digest blocks on its own queue, so it needs its own thread.
+            digester = Executors.newCachedThreadPool();
+            this.verify = verify;
+        }
+        try {
+            if (stats != null) {
+                for (RootSector rootSector : rootSectors) {
+                    for (Partition partition : rootSector.getRealPartitions()) {
+                        stats.addTotal(partition.getLength());
+                    }
+                }
+            }
+
+            out.println("Using hard disk image " + image.getFile().toAbsolutePath());
+            out.println("Creating extraction directory " + destinationDir.toAbsolutePath());
+            Files.createDirectories(destinationDir);
+            if (convertBootSectors) {
+                out.println("Converting boot sectors to MS DOS format.");
+            }
+            if (sparse) {
+                out.println("Creating sparse partition images.");
+            }
+            if (used) {
+                out.println("Copying allocated clusters only.");
+            }
+            if (compress) {
+                out.println("Compressing partition images with " + compressorThreads + " threads.");
+            }
+            if (digester != null) {
+                out.println(verify ? "Computing and verifying digests of partition images." : "Computing digests of partition images.");
+            }
 
-        char partitionName = 'c';
-        for (RootSector rootSector : rootSectors) {
-            for (Partition partition : rootSector.getRealPartitions()) {
-                String prefix = "Partition " + Character.toUpperCase(partitionName) + ": ";
+            ExecutorService executor = Executors.newFixedThreadPool(options.getJobs() > 0 ? options.getJobs() : Runtime.getRuntime().availableProcessors());
+            try {
+                Map<String, Future<Map<String, String>>> tasks = new LinkedHashMap<>();
+                Map<String, String> names = new LinkedHashMap<>();
+                char partitionName = 'c';
+                for (RootSector rootSector : rootSectors) {
+                    for (Partition partition : rootSector.getRealPartitions()) {
+                        String name = Character.toString(Character.toUpperCase(partitionName));
+                        String prefix = "Partition " + name + ": ";
 
-                Path partitionFile = destinationDir.resolve(partitionName + ".img");
-                out.println(prefix + "Creating image " + partitionFile.toAbsolutePath());
-                extractPartition(partition, convertBootSectors, partitionFile);
-                partitionName++;
+                        Path partitionFile = destinationDir.resolve(partitionName + (compress ? ".img.gz" : ".img"));
+                        names.put(prefix, partitionName + ".img");
+                        tasks.put(prefix, executor.submit(() -> {
+                            out.println(prefix + "Creating image " + partitionFile.toAbsolutePath());
+                            return extractPartition(name, partition, convertBootSectors, sparse, used, partitionFile);
+                        }));
+                        partitionName++;
+                    }
+                }
+
+                int failed = 0;
+                Map<String, Map<String, String>> digests = new LinkedHashMap<>();
+                for (Entry<String, Future<Map<String, String>>> task : tasks.entrySet()) {
+                    try {
+                        Map<String, String> partitionDigests = task.getValue().get();
+                        if (partitionDigests != null) {
+                            digests.put(names.get(task.getKey()), partitionDigests);
+                        }
+                    } catch (ExecutionException e) {
+                        out.println(task.getKey() + "Failed: " + e.getCause().getMessage());
+                        failed++;
+                    }
+                }
+                if (digester != null) {
+                    writeManifest(destinationDir.resolve(MANIFEST), digests);
+                }
+                if (failed > 0) {
+                    throw new IOException("Extraction of " + failed + " of " + tasks.size() + " partitions failed.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Extraction has been interrupted.");
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            if (compressor != null) {
+                compressor.shutdownNow();
+                compressor = null;
+            }
+            if (digester != null) {
+                digester.shutdownNow();
+                digester = null;
+            }
+            if (stats != null) {
+                image.setStats(null);
+                stats.stop(err);
             }
         }
-
-        image.close();
     }
 
     /**
@@ -66,30 +262,315 @@ public class ExtractPartitions {
      * dd if=hdFile bs=512 skip=partition.getAbsoluteStart()/512 count=partition.getLength()/512 of=partitionFile
      * </pre>
      *
+     * @param name Name of partition, e.g. C.
      * @param partition Partition definition.
      * @param msdos Convert boot sector to MS DOS format?.
+     * @param sparse Skip all zero blocks instead of writing them?. Ignored for compressed partition images.
+     * @param used Copy only the parts of the partition in use by the file system?.
      * @param destination Partition image (will be created).
+     * @return Digests of the uncompressed partition image by name. Null, if partition images should not be digested.
      * @throws IOException In case of IO errors.
      */
-    private void extractPartition(Partition partition, boolean msdos, Path destination) throws IOException {
-        if (Files.isRegularFile(destination)) {
+    private Map<String, String> extractPartition(String name, Partition partition, boolean msdos, boolean sparse, boolean used, Path destination) throws IOException {
+        String prefix = "Partition " + name + ": ";
+        if (Files.exists(destination)) {
             throw new IllegalArgumentException("Destination file "+ destination.toAbsolutePath() + " exists.");
         }
 
-        try (FileChannel destinationFile = FileChannel.open(destination, READ)) {
-            if (msdos) {
-                destinationFile.write(createMbr(partition));
-            }
-            long position = partition.getAbsoluteStart();
-            long count = partition.getLength();
-//            if (msdos) {
-//                // Skip original boot sector.
-//                position += 512;
-//                count -= 512;
-//                // Write MS DOS boot sector from parsed partition data.
-//                destinationChannel.write(msdosBootSector(partition));
-//            }
-            image.transferTo(position, count, destinationFile);
+        Path temp = destination.resolveSibling(destination.getFileName() + ".part");
+        try {
+            Map<String, String> digests = null;
+            try (FileChannel destinationFile = FileChannel.open(temp, CREATE_NEW, WRITE);
+                 ParallelGzipChannel compressed = compressor != null ?
+                         new ParallelGzipChannel(destinationFile, compressor, compressorThreads, Deflater.DEFAULT_COMPRESSION) : null;
+                 DigestPipeline pipeline = digester != null ? createDigests(digester) : null) {
+                if (msdos) {
+                    ByteBuffer mbr = createMbr(partition);
+                    if (pipeline != null) {
+                        pipeline.update(mbr.duplicate());
+                    }
+                    while (mbr.hasRemaining()) {
+                        (compressed != null ? compressed : destinationFile).write(mbr);
+                    }
+                }
+                long position = partition.getAbsoluteStart();
+                long count = partition.getLength();
+//                if (msdos) {
+//                    // Skip original boot sector.
+//                    position += 512;
+//                    count -= 512;
+//                    // Write MS DOS boot sector from parsed partition data.
+//                    destinationChannel.write(msdosBootSector(partition));
+//                }
+                long offset = msdos ? 512 : 0;
+                PartitionStepEvent rangesEvent = PartitionStepEvent.start();
+                List<long[]> ranges = used ? usedRanges(prefix, partition) : Collections.singletonList(new long[]{0, count});
+                long total = 0;
+                for (long[] range : ranges) {
+                    total += range[1];
+                }
+                rangesEvent.record(name, "ranges", total);
+                if (image.getStats() != null) {
+                    // Only the used parts of the partition get read.
+                    image.getStats().addTotal(total - count);
+                }
+
+                // Digests need the data in memory, so the zero copy transfer can be used only without digests.
+                PartitionStepEvent copyEvent = PartitionStepEvent.start();
+                boolean chunked = sparse || pipeline != null;
+                ByteBuffer buffer = chunked && !image.isMapped() ? ByteBuffer.allocateDirect(CHUNK_SIZE) : null;
+                int reported = 0;
+                long copied = 0;
+                long written = 0;
+                for (long[] range : ranges) {
+                    for (long rangeCopied = 0; rangeCopied < range[1]; ) {
+                        long num = Math.min(PROGRESS_STEP, range[1] - rangeCopied);
+                        long start = range[0] + rangeCopied;
+                        if (pipeline != null) {
+                            pipeline.updateZeros(start - written);
+                        }
+                        if (compressed != null) {
+                            // Compressed images are written sequentially, so skipped parts have to be written as zeros.
+                            writeZeros(compressed, start - written);
+                        }
+                        if (chunked) {
+                            copyChunks(position + start, num, compressed, destinationFile, sparse, offset + start, buffer, pipeline);
+                        } else if (compressed != null) {
+                            image.transferTo(position + start, num, compressed);
+                        } else {
+                            destinationFile.position(offset + start);
+                            image.transferTo(position + start, num, destinationFile);
+                        }
+                        rangeCopied += num;
+                        copied += num;
+                        written = start + num;
+
+                        int percent = (int) (copied * 100 / total);
+                        if (percent / 10 > reported / 10) {
+                            reported = percent;
+                            out.println(prefix + percent + "%");
+                        }
+                    }
+                }
+                if (pipeline != null) {
+                    pipeline.updateZeros(count - written);
+                }
+                if (compressed != null) {
+                    writeZeros(compressed, count - written);
+                } else if (destinationFile.size() < offset + count) {
+                    // Trailing zero blocks or free clusters have been skipped: Extend image to its full size.
+                    destinationFile.write(ByteBuffer.allocate(1), offset + count - 1);
+                }
+                if (pipeline != null) {
+                    digests = pipeline.finish();
+                }
+                copyEvent.record(name, "copy", copied);
+            }
+            if (verify) {
+                PartitionStepEvent verifyEvent = PartitionStepEvent.start();
+                verifyDigests(prefix, temp, compressor != null, digests);
+                verifyEvent.record(name, "verify", (msdos ? 512 : 0) + partition.getLength());
+            }
+            Files.move(temp, destination);
+            return digests;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Create pipeline for all digests of a partition image.
+     *
+     * @param digester Executor to run the digests on.
+     */
+    private static DigestPipeline createDigests(ExecutorService digester) {
+        return new DigestPipeline(digester, Digest.sha256(), Digest.crc32c());
+    }
+
+    /**
+     * Read back a written partition image and compare its digests.
+     *
+     * @param prefix Prefix for messages.
+     * @param file Partition image.
+     * @param compressed Is the partition image gzip compressed?.
+     * @param expected Digests computed while writing the partition image.
+     * @throws IOException In case of IO errors or if the digests differ.
+     */
+    private void verifyDigests(String prefix, Path file, boolean compressed, Map<String, String> expected) throws IOException {
+        out.println(prefix + "Verifying image");
+        verifyDigests(file, compressed, expected, digester);
+    }
+
+    /**
+     * Read back a partition image and compare its digests.
+     *
+     * @param file Partition image.
+     * @param compressed Is the partition image gzip compressed?.
+     * @param expected Expected digests by name.
+     * @param digester Executor to run the digests on.
+     * @throws IOException In case of IO errors or if the digests differ.
+     */
+    static void verifyDigests(Path file, boolean compressed, Map<String, String> expected, ExecutorService digester) throws IOException {
+        Map<String, String> actual;
+        try (DigestPipeline pipeline = createDigests(digester);
+             InputStream in = compressed ?
+                     new GZIPInputStream(Files.newInputStream(file), CHUNK_SIZE) : Files.newInputStream(file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (int num; (num = in.read(buffer)) >= 0; ) {
+                pipeline.update(ByteBuffer.wrap(buffer, 0, num));
+            }
+            actual = pipeline.finish();
+        }
+        if (!actual.equals(expected)) {
+            throw new IOException("Verification failed: Image contains " + actual + " instead of " + expected + ".");
+        }
+    }
+
+    /**
+     * Write the digests of all partition images as BSD style tagged checksums, e.g. "SHA256 (c.img) = ...".
+     * Digests of compressed partition images are those of the uncompressed images.
+     *
+     * @param file Manifest.
+     * @param digests Digests by partition image name.
+     */
+    private void writeManifest(Path file, Map<String, Map<String, String>> digests) throws IOException {
+        out.println("Writing digests to " + file.toAbsolutePath());
+        try (PrintWriter manifest = new PrintWriter(Files.newBufferedWriter(file, US_ASCII))) {
+            for (Entry<String, Map<String, String>> partition : digests.entrySet()) {
+                for (Entry<String, String> digest : partition.getValue().entrySet()) {
+                    manifest.print(digest.getKey() + " (" + partition.getKey() + ") = " + digest.getValue() + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Write zeros.
+     *
+     * @param destination Destination.
+     * @param count Number of zeros to write.
+     */
+    private static void writeZeros(WritableByteChannel destination, long count) throws IOException {
+        while (count > 0) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit((int) Math.min(zeros.capacity(), count));
+            count -= destination.write(zeros);
+        }
+    }
+
+    /**
+     * Determine the parts of a partition which are in use:
+     * The boot sector, the FATs, the root directory and all allocated clusters.
+     * Falls back to the whole partition, if its file system cannot be read.
+     *
+     * @param prefix Prefix for messages.
+     * @param partition Partition definition.
+     * @return Ranges as pairs of offset relative to the partition start and length, in ascending order.
+     */
+    private List<long[]> usedRanges(String prefix, Partition partition) throws IOException {
+        long length = partition.getLength();
+        FatFileSystem fileSystem;
+        try {
+            fileSystem = new FatFileSystem(image, partition);
+        } catch (IOException e) {
+            out.println(prefix + e.getMessage() + " Copying the whole partition.");
+            return Collections.singletonList(new long[]{0, length});
+        }
+
+        List<long[]> result = new ArrayList<>();
+        // Boot sector, FATs and root directory.
+        long start = partition.getAbsoluteStart();
+        result.add(new long[]{0, Math.min(fileSystem.getDataOffset() - start, length)});
+
+        // Runs of allocated clusters.
+        BitSet allocated = fileSystem.getAllocatedClusters();
+        for (int run = allocated.nextSetBit(0); run >= 0; run = allocated.nextSetBit(run)) {
+            int end = allocated.nextClearBit(run);
+            long offset = fileSystem.getClusterOffset(run + 2) - start;
+            long size = Math.min((long) (end - run) * fileSystem.getClusterSize(), length - offset);
+            if (size <= 0) {
+                break;
+            }
+            result.add(new long[]{offset, size});
+            run = end;
+        }
+
+        return result;
+    }
+
+    /**
+     * Copy a part of the hard disk image chunk by chunk.
+     * Each chunk is read only once and passed to the destination and to the digests.
+     *
+     * @param position Absolute position in the hard disk image.
+     * @param count Number of bytes to copy.
+     * @param compressed Compressed destination. If not null, destination, sparse and offset are ignored.
+     * @param destination Destination.
+     * @param sparse Skip all zero blocks instead of writing them?.
+     *   The skipped blocks become holes in the destination, which read back as zeros.
+     * @param offset Position in destination.
+     * @param buffer Buffer to read into, if not memory mapped.
+     * @param pipeline Digests. Null, if the partition image should not be digested.
+     */
+    private void copyChunks(long position, long count, WritableByteChannel compressed, FileChannel destination, boolean sparse, long offset, ByteBuffer buffer, DigestPipeline pipeline) throws IOException {
+        for (long copied = 0; copied < count; ) {
+            int length = (int) Math.min(CHUNK_SIZE, count - copied);
+            ByteBuffer chunk = image.read(position + copied, length, buffer);
+            if (chunk.limit() != length) {
+                throw new IOException("Read wrong amount of bytes: " + chunk.limit() + " instead of " + length + ".");
+            }
+
+            if (compressed != null) {
+                ByteBuffer data = chunk.duplicate();
+                while (data.hasRemaining()) {
+                    compressed.write(data);
+                }
+            } else if (sparse) {
+                writeSparse(chunk, destination, offset + copied);
+            } else {
+                ByteBuffer data = chunk.duplicate();
+                while (data.hasRemaining()) {
+                    destination.write(data, offset + copied + data.position());
+                }
+            }
+            if (pipeline != null) {
+                pipeline.update(chunk.duplicate());
+            }
+
+            copied += length;
+        }
+    }
+
+    /**
+     * Write a chunk, but skip all zero blocks.
+     * The skipped blocks become holes in the destination, which read back as zeros.
+     *
+     * @param chunk Chunk, starting at position 0.
+     * @param destination Destination.
+     * @param offset Position of the chunk in destination.
+     */
+    private static void writeSparse(ByteBuffer chunk, FileChannel destination, long offset) throws IOException {
+        int length = chunk.limit();
+        for (int block = 0; block < length; ) {
+            int end = Math.min(block + SPARSE_BLOCK_SIZE, length);
+            if (IntUtils.isZero(chunk, block, end - block)) {
+                block = end;
+                continue;
+            }
+
+            // Write all consecutive non zero blocks at once.
+            int start = block;
+            for (block = end; block < length; block = end) {
+                end = Math.min(block + SPARSE_BLOCK_SIZE, length);
+                if (IntUtils.isZero(chunk, block, end - block)) {
+                    break;
+                }
+            }
+            ByteBuffer data = chunk.duplicate();
+            data.limit(block).position(start);
+            while (data.hasRemaining()) {
+                destination.write(data, offset + data.position());
+            }
         }
     }
 
@@ -0,0 +1,58 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static java.lang.System.out;
+
+/**
+ * The generate command creates a synthetic hard disk image, e.g. for benchmarks and load tests.
+ */
+public class GenerateImage {
+    /**
+     * Generate hard disk image.
+     *
+     * @param file The file for the hard disk image. Must not exist.
+     * @param size Size of the image in bytes, optionally with suffix K, M, G or T, e.g. "4G".
+     * @param partitions Number of partitions.
+     * @param seed Seed for all random contents.
+     * @param noise Fraction of free blocks to fill with random noise, from 0.0 to 1.0.
+     * @param files Number of files per directory.
+     * @param backups Create backup root sectors?.
+     */
+    public void generate(Path file, String size, int partitions, long seed, double noise, int files, boolean backups) throws IOException {
+        long bytes = parseSize(size);
+
+        out.println("Creating hard disk image " + file.toAbsolutePath() + " with " + bytes + " bytes and " + partitions + " partitions");
+        ImageGenerator generator = new ImageGenerator(bytes, partitions, seed);
+        generator.setNoise(noise);
+        generator.setFiles(files);
+        generator.setBackups(backups);
+        generator.generate(file);
+    }
+
+    /**
+     * Parse size with optional suffix K, M, G or T.
+     *
+     * @param size Size, e.g. "4G".
+     * @return Size in bytes.
+     */
+    public static long parseSize(String size) {
+        String number = size.trim().toUpperCase();
+        int shift = 0;
+        if (!number.isEmpty()) {
+            int index = "KMGT".indexOf(number.charAt(number.length() - 1));
+            if (index >= 0) {
+                shift = 10 * (index + 1);
+                number = number.substring(0, number.length() - 1);
+            }
+        }
+        try {
+            return Long.parseLong(number) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size " + size + ".");
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package de.heiden.ataripart.commands;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Options of the list command.
+ * <p>
+ * The command line and the server use this class as mixin, so both accept the same options.
+ */
+public class ListOptions extends OutputOptions {
+    /**
+     * Display backup root sectors too?.
+     */
+    @Option(names = {"-b", "--backup"}, description = "Display backup root sectors, if any")
+    private boolean backup;
+
+    /**
+     * Display backup root sectors too?.
+     */
+    public boolean isBackup() {
+        return backup;
+    }
+
+    /**
+     * Set whether to display backup root sectors too.
+     *
+     * @param backup Display backup root sectors?.
+     */
+    public void setBackup(boolean backup) {
+        this.backup = backup;
+    }
+}
@@ -3,49 +3,104 @@ package de.heiden.ataripart.commands;
 import de.heiden.ataripart.image.ImageReader;
 import de.heiden.ataripart.image.Partition;
 import de.heiden.ataripart.image.RootSector;
+import de.heiden.ataripart.image.RootSectorView;
+import de.heiden.ataripart.output.OutputFormat;
+import de.heiden.ataripart.output.RecordWriter;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.List;
 
-import static java.lang.System.out;
 
 /**
  * The list command list all root sectors and its partitions, starting with the mbr.
  */
 public class ListPartitions {
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
     /**
      * Hard disk image.
      */
     private ImageReader image;
 
+    /**
+     * Writer for machine readable output. Null for text output.
+     */
+    private RecordWriter records;
+
+    /**
+     * Constructor, writing to stdout.
+     */
+    public ListPartitions() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public ListPartitions(PrintStream out) {
+        this.out = out;
+    }
+
     /**
      * Display all detected valid partitions.
      *
      * @param file The file with the hard disk image.
+     * @param mapped Memory map the hard disk image?.
      * @param backup Display backup root sectors?.
+     * @param format Output format.
      */
-    public void list(Path file, boolean backup) throws IOException {
-        image = new ImageReader(file);
-
-        List<RootSector> rootSectors = image.readRootSectors();
-        if (rootSectors.isEmpty()) {
-            out.println("No valid root sectors found");
-            return;
+    public void list(Path file, boolean mapped, boolean backup, OutputFormat format) throws IOException {
+        try (ImageReader image = ImageReader.open(file, mapped)) {
+            list(image, image.readRootSectors(), backup, format);
         }
-        RootSector masterRootSector = rootSectors.get(0);
+    }
 
-        long maxOffset = displayPartitions(rootSectors);
+    /**
+     * Display all detected valid partitions of an open hard disk image.
+     *
+     * @param image Hard disk image. Does not get closed.
+     * @param rootSectors Master root sector and all following xgm root sectors, see {@link ImageReader#readRootSectors()}.
+     * @param backup Display backup root sectors?.
+     * @param format Output format.
+     */
+    public void list(ImageReader image, List<RootSector> rootSectors, boolean backup, OutputFormat format) throws IOException {
+        this.image = image;
+        records = format == OutputFormat.TEXT ? null : RecordWriter.create(format, out);
+        try {
+            if (rootSectors.isEmpty()) {
+                if (records == null) {
+                    out.println("No valid root sectors found");
+                }
+                return;
+            }
+            RootSector masterRootSector = rootSectors.get(0);
 
-        out.println("Disk ends at " + masterRootSector.getSize());
+            long maxOffset = displayPartitions(rootSectors);
 
-        if (backup) {
-            out.println();
-            displayFirstBackupRootSector(masterRootSector);
-            displayLastBackupRootSector(masterRootSector, maxOffset);
-        }
+            if (records == null) {
+                out.println("Disk ends at " + masterRootSector.getSize());
+            }
 
-        image.close();
+            if (backup) {
+                if (records == null) {
+                    out.println();
+                }
+                displayFirstBackupRootSector(masterRootSector);
+                displayLastBackupRootSector(masterRootSector, maxOffset);
+            }
+        } finally {
+            if (records != null) {
+                records.close();
+                records = null;
+            }
+        }
     }
 
     /**
@@ -54,26 +109,40 @@ public class ListPartitions {
      * @param rootSectors Detected root sectors
      * @return Maximum offset, that is used by any detected partition
      */
-    public long displayPartitions(List<RootSector> rootSectors) {
+    public long displayPartitions(List<RootSector> rootSectors) throws IOException {
         char partitionName = 'C';
         long maxOffset = 0;
         for (RootSector rootSector : rootSectors) {
-            out.println(rootSector);
+            if (records != null) {
+                records.beginRootSector(rootSector.isXGM() ? "xgm" : "master", rootSector);
+            } else {
+                out.println(rootSector);
+            }
 
             for (Partition partition : rootSector.getAllPartitions()) {
                 if (!partition.isValid()) {
                     continue;
                 }
 
+                String name;
                 if (partition.isXGM()) {
-                    out.println(partition.toString("container"));
+                    name = "container";
                 } else {
                     if (partition.getAbsoluteEnd() > maxOffset) {
                         maxOffset = partition.getAbsoluteEnd();
                     }
-                    out.println(partition.toString(Character.toString(partitionName++)));
+                    name = Character.toString(partitionName++);
+                }
+                if (records != null) {
+                    records.partition(name, partition);
+                } else {
+                    out.println(partition.toString(name));
                 }
             }
+
+            if (records != null) {
+                records.endRootSector();
+            }
         }
         return maxOffset;
     }
@@ -86,15 +155,9 @@ public class ListPartitions {
     public void displayFirstBackupRootSector(RootSector masterRootSector) throws IOException {
         long offset = masterRootSector.getOffset() + 512;
         if (!masterRootSector.getRealPartitions().isEmpty() && offset < masterRootSector.getRealPartitions().get(0).getAbsoluteStart()) {
-            RootSector backupRootSector = image.readRootSector(0, 0, offset);
-            if (backupRootSector.hasValidPartitions()) {
-                out.println("First (backup) " + backupRootSector);
-
-                for (Partition backupPartition : backupRootSector.getAllPartitions()) {
-                    if (backupPartition.isValid()) {
-                        out.println(backupPartition.toString());
-                    }
-                }
+            if (image.readRootSector(0, 0, offset, new RootSectorView()).hasValidPartitions()) {
+                RootSector backupRootSector = image.readRootSector(0, 0, offset);
+                displayBackupRootSector("First", backupRootSector);
             }
         }
     }
@@ -108,16 +171,38 @@ public class ListPartitions {
     public void displayLastBackupRootSector(RootSector masterRootSector, long maxOffset) throws IOException {
         long size = masterRootSector.getSize();
         if (maxOffset < size) {
-            RootSector backupRootSector = image.readRootSector(0, 0, size - 512);
-            if (backupRootSector.hasValidPartitions()) {
-                out.println("Last (backup) " + backupRootSector);
+            if (image.readRootSector(0, 0, size - 512, new RootSectorView()).hasValidPartitions()) {
+                RootSector backupRootSector = image.readRootSector(0, 0, size - 512);
+                displayBackupRootSector("Last", backupRootSector);
+            }
+        }
+    }
 
-                for (Partition backupPartition : backupRootSector.getAllPartitions()) {
-                    if (backupPartition.isValid()) {
-                        out.println(backupPartition.toString());
-                    }
+    /**
+     * Output backup root sector.
+     *
+     * @param which Which backup root sector: "First" or "Last".
+     * @param backupRootSector Backup root sector.
+     */
+    private void displayBackupRootSector(String which, RootSector backupRootSector) throws IOException {
+        if (records != null) {
+            records.beginRootSector(which.toLowerCase() + " backup", backupRootSector);
+        } else {
+            out.println(which + " (backup) " + backupRootSector);
+        }
+
+        for (Partition backupPartition : backupRootSector.getAllPartitions()) {
+            if (backupPartition.isValid()) {
+                if (records != null) {
+                    records.partition(Integer.toString(backupPartition.getNumber()), backupPartition);
+                } else {
+                    out.println(backupPartition.toString());
                 }
             }
         }
+
+        if (records != null) {
+            records.endRootSector();
+        }
     }
 }
@@ -0,0 +1,33 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.output.OutputFormat;
+import picocli.CommandLine.Option;
+
+/**
+ * Output options of the commands writing root sectors.
+ * <p>
+ * The command line and the server use this class as mixin, so both accept the same options.
+ */
+public class OutputOptions {
+    /**
+     * Output format.
+     */
+    @Option(names = {"-o", "--output"}, description = "Output format: text, jsonl or csv")
+    private OutputFormat format = OutputFormat.TEXT;
+
+    /**
+     * Output format.
+     */
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Set output format.
+     *
+     * @param format Output format.
+     */
+    public void setFormat(OutputFormat format) {
+        this.format = format;
+    }
+}
@@ -0,0 +1,21 @@
+package de.heiden.ataripart.commands;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Options of the partitions command.
+ * <p>
+ * The command line and the server use this class as mixin, so both accept the same options.
+ */
+public class PartitionOptions extends ExtractOptions {
+    /**
+     * Set number of partitions to extract concurrently.
+     *
+     * @param jobs Number of partitions. 0 uses the number of available processors.
+     */
+    @Override
+    @Option(names = {"-j", "--jobs"}, description = "Number of partitions to extract concurrently, 0 for number of processors", defaultValue = "1")
+    public void setJobs(int jobs) {
+        super.setJobs(jobs);
+    }
+}
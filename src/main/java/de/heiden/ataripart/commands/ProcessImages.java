@@ -0,0 +1,447 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.output.OutputFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The batch command runs one of the other commands on many hard disk images in a single JVM.
+ * <p>
+ * The images are processed by a shared pool of workers.
+ * The number of images processed concurrently per file store is limited,
+ * so images on the same disk do not compete for its bandwidth.
+ * The images of each file store are queued separately and submitted to the pool only, if the limit allows,
+ * so workers never wait for a busy file store while images on other file stores are pending.
+ * Failing images are reported, but do not stop the others.
+ */
+public class ProcessImages {
+    /**
+     * Commands which can be run on each image.
+     */
+    public enum Action {
+        /**
+         * List all root sectors and their partitions.
+         */
+        LIST,
+
+        /**
+         * Search the whole image for root sectors.
+         */
+        ANALYZE,
+
+        /**
+         * Extract all partitions.
+         */
+        PARTITIONS,
+
+        /**
+         * Extract all files from all partitions.
+         */
+        FILES
+    }
+
+    /**
+     * Name of the report in the destination directory.
+     */
+    public static final String REPORT = "report.csv";
+
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
+    /**
+     * Constructor, writing to stdout.
+     */
+    public ProcessImages() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public ProcessImages(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Run a command on many hard disk images.
+     * <p>
+     * The output of each image goes to the destination directory:
+     * The output of list and analyze to "name.txt" (or .jsonl, .csv),
+     * extracted partitions or files to the directory "name" and their messages to "name.log".
+     * The result of all images is written to {@value #REPORT}.
+     *
+     * @param sources Images: Files, directories (all files in them), globs (e.g. "dumps/*.img")
+     *   or manifests with one image per line (e.g. "@images.txt").
+     * @param action Command to run on each image.
+     * @param destinationDir Directory to write the results to.
+     * @param mapped Memory map the hard disk images?.
+     * @param outputOptions Output options of list and analyze.
+     * @param extractOptions Options of partitions. The partitions of each image are extracted one after the other.
+     * @param jobs Number of images to process concurrently. 0 uses the number of available processors.
+     * @param io Maximum number of images processed concurrently per file store.
+     */
+    public void process(List<String> sources, Action action, Path destinationDir, boolean mapped,
+                        OutputOptions outputOptions, ExtractOptions extractOptions, int jobs, int io) throws IOException {
+        Map<String, Path> images = names(collect(sources));
+        out.println("Processing " + images.size() + " images");
+        Files.createDirectories(destinationDir);
+
+        ExecutorService executor = Executors.newFixedThreadPool(jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors());
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(destinationDir.resolve(REPORT), UTF_8))) {
+            Map<String, CompletableFuture<Path>> tasks = new LinkedHashMap<>();
+            Map<String, Long> durations = new ConcurrentHashMap<>();
+            Map<FileStore, StoreQueue> queues = new LinkedHashMap<>();
+            for (Entry<String, Path> image : images.entrySet()) {
+                String name = image.getKey();
+                CompletableFuture<Path> task = new CompletableFuture<>();
+                tasks.put(name, task);
+                queues.computeIfAbsent(store(image.getValue()), store -> new StoreQueue(executor)).add(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        task.complete(process(image.getValue(), name, action, destinationDir, mapped, outputOptions.getFormat(), extractOptions));
+                    } catch (Throwable e) {
+                        task.completeExceptionally(e);
+                    } finally {
+                        durations.put(name, System.nanoTime() - start);
+                    }
+                });
+            }
+            for (StoreQueue queue : queues.values()) {
+                queue.start(Math.max(1, io));
+            }
+
+            report.print("image,status,seconds,output,message\r\n");
+            int failed = 0;
+            for (Entry<String, CompletableFuture<Path>> task : tasks.entrySet()) {
+                Path image = images.get(task.getKey());
+                Path output = null;
+                String message = "";
+                try {
+                    output = task.getValue().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof NoSuchFileException) {
+                        message = "File " + cause.getMessage() + " not found.";
+                    } else {
+                        message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                    }
+                    failed++;
+                }
+                double seconds = durations.getOrDefault(task.getKey(), 0L) / 1e9;
+
+                String status = output != null ? "OK" : "FAILED";
+                out.println(String.format(Locale.ROOT, "%-6s %s (%.1f s)%s", status, image, seconds, message.isEmpty() ? "" : ": " + message));
+                report.print(field(image.toString()) + "," + status + "," + String.format(Locale.ROOT, "%.3f", seconds) + "," +
+                        field(output != null ? output.toAbsolutePath().toString() : "") + "," + field(message) + "\r\n");
+            }
+
+            out.println("Processed " + tasks.size() + " images, " + failed + " failed. Report: " + destinationDir.resolve(REPORT).toAbsolutePath());
+            if (failed > 0) {
+                throw new IOException("Processing of " + failed + " of " + tasks.size() + " images failed.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch has been interrupted.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the command on a single image.
+     *
+     * @param image Hard disk image.
+     * @param name Unique name of the image, used for its output.
+     * @param action Command to run.
+     * @param destinationDir Directory to write the results to.
+     * @param mapped Memory map the hard disk image?.
+     * @param format Output format of list and analyze.
+     * @param extractOptions Options of partitions.
+     * @return Output file or directory.
+     */
+    private Path process(Path image, String name, Action action, Path destinationDir, boolean mapped,
+                         OutputFormat format, ExtractOptions extractOptions) throws IOException {
+        Path output;
+        Path log;
+        if (action == Action.LIST || action == Action.ANALYZE) {
+            output = destinationDir.resolve(name + "." + (format == OutputFormat.TEXT ? "txt" : format.name().toLowerCase()));
+            log = output;
+        } else {
+            output = destinationDir.resolve(name);
+            log = destinationDir.resolve(name + ".log");
+        }
+
+        try (PrintStream stream = new PrintStream(new BufferedOutputStream(Files.newOutputStream(log)), false, UTF_8.name())) {
+            switch (action) {
+                case LIST:
+                    new ListPartitions(stream).list(image, mapped, false, format);
+                    break;
+                case ANALYZE:
+                    ScanOptions options = new ScanOptions();
+                    // The images are processed in parallel already.
+                    options.setThreads(1);
+                    new AnalyzeImage(stream).analyze(image, mapped, format, false, options);
+                    break;
+                case PARTITIONS:
+                    new ExtractPartitions(stream).extract(image, mapped, output, false, extractOptions);
+                    break;
+                case FILES:
+                    new ExtractFiles(stream).extract(image, mapped, output, false);
+                    break;
+            }
+            if (stream.checkError()) {
+                throw new IOException("Writing " + log.toAbsolutePath() + " failed.");
+            }
+        }
+        return output;
+    }
+
+    /**
+     * File store of an image.
+     *
+     * @param image Hard disk image.
+     * @return File store or null, if it cannot be determined.
+     */
+    private static FileStore store(Path image) {
+        try {
+            return Files.getFileStore(image);
+        } catch (IOException e) {
+            // E.g. image does not exist. Processing will report the error.
+            return null;
+        }
+    }
+
+    /**
+     * Images of a file store, which are submitted to the workers one after another,
+     * so that only a limited number of them is processed concurrently.
+     */
+    private static class StoreQueue {
+        /**
+         * Workers.
+         */
+        private final Executor executor;
+
+        /**
+         * Images not submitted yet.
+         */
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+
+        /**
+         * Constructor.
+         *
+         * @param executor Workers.
+         */
+        private StoreQueue(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Add an image.
+         *
+         * @param task Processing of the image.
+         */
+        private synchronized void add(Runnable task) {
+            pending.add(task);
+        }
+
+        /**
+         * Submit the first images. Each processed image submits the next one.
+         *
+         * @param limit Maximum number of images processed concurrently.
+         */
+        private synchronized void start(int limit) {
+            for (int i = 0; i < limit; i++) {
+                next();
+            }
+        }
+
+        /**
+         * Submit the next image, if any.
+         */
+        private synchronized void next() {
+            Runnable task = pending.poll();
+            if (task == null) {
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        next();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The batch has been aborted.
+                pending.clear();
+            }
+        }
+    }
+
+    //
+    // Sources
+    //
+
+    /**
+     * Collect all images from the sources, without duplicates.
+     *
+     * @param sources Images: Files, directories, globs or manifests ("@file").
+     * @return Images in order of the sources.
+     */
+    private static List<Path> collect(List<String> sources) throws IOException {
+        Set<Path> result = new LinkedHashSet<>();
+        for (String source : sources) {
+            if (source.startsWith("@")) {
+                Path manifest = Paths.get(source.substring(1));
+                for (String line : Files.readAllLines(manifest, UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        // Relative paths are relative to the manifest.
+                        Path parent = manifest.toAbsolutePath().getParent();
+                        result.add(parent.resolve(line).normalize());
+                    }
+                }
+            } else if (isGlob(source)) {
+                result.addAll(glob(source));
+            } else if (Files.isDirectory(Paths.get(source))) {
+                try (Stream<Path> files = Files.list(Paths.get(source))) {
+                    result.addAll(files
+                            .filter(Files::isRegularFile)
+                            .filter(ProcessImages::isImage)
+                            .map(file -> file.toAbsolutePath().normalize())
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                result.add(Paths.get(source).toAbsolutePath().normalize());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Does the source contain glob characters?.
+     *
+     * @param source Source.
+     */
+    private static boolean isGlob(String source) {
+        for (char c : "*?[{".toCharArray()) {
+            if (source.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find all images matching a glob.
+     *
+     * @param glob Glob, e.g. "dumps/*.img" or "dumps/**.img".
+     * @return Images in alphabetical order.
+     */
+    private static List<Path> glob(String glob) throws IOException {
+        // Search from the last directory without glob characters.
+        int index = glob.length();
+        for (char c : "*?[{".toCharArray()) {
+            int i = glob.indexOf(c);
+            if (i >= 0 && i < index) {
+                index = i;
+            }
+        }
+        int separator = Math.max(glob.lastIndexOf('/', index), glob.lastIndexOf(File.separatorChar, index));
+        Path base = separator >= 0 ? Paths.get(glob.substring(0, separator + 1)) : Paths.get("");
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(separator + 1));
+
+        try (Stream<Path> files = Files.walk(base.toAbsolutePath())) {
+            Path root = base.toAbsolutePath();
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(root.relativize(file)))
+                    .filter(ProcessImages::isImage)
+                    .map(Path::normalize)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * May the file be a hard disk image?.
+     * Excludes hidden files, gzip indexes, scan caches, checkpoints, partial and temporary files.
+     *
+     * @param file File.
+     */
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.endsWith(".idx") && !name.endsWith(".scan") && !name.endsWith(".checkpoint") && !name.endsWith(".part") && !name.endsWith(".tmp");
+    }
+
+    /**
+     * Assign a unique name to each image, based on its file name.
+     *
+     * @param images Images.
+     * @return Images by unique name.
+     */
+    private static Map<String, Path> names(List<Path> images) {
+        Map<String, Path> result = new LinkedHashMap<>();
+        Set<String> used = new HashSet<>();
+        for (Path image : images) {
+            String name = image.getFileName().toString();
+            String unique = name;
+            for (int i = 2; !used.add(unique); i++) {
+                unique = name + "-" + i;
+            }
+            result.put(unique, image);
+        }
+        return result;
+    }
+
+    /**
+     * Quote a CSV field, if needed.
+     *
+     * @param value Value.
+     */
+    private static String field(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,267 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ImageScanner;
+import de.heiden.ataripart.image.PriorityScan;
+import de.heiden.ataripart.image.ScanCache;
+import de.heiden.ataripart.image.ScanCheckpoint;
+import de.heiden.ataripart.image.ScanGuide;
+import picocli.CommandLine.ITypeConverter;
+import picocli.CommandLine.Option;
+
+/**
+ * Options of the scan of the analyze command.
+ * <p>
+ * The fields hold the defaults. The command line and the server use this class as mixin for the analyze command,
+ * so both accept the same options.
+ */
+public class ScanOptions {
+    /**
+     * Number of threads to scan with. 0 uses the number of available processors.
+     */
+    @Option(names = {"-t", "--threads"}, description = "Number of threads to scan with, defaults to the number of processors")
+    private int threads = 0;
+
+    /**
+     * Number of buffers to read ahead into with a dedicated reader thread. 0 for no read-ahead.
+     */
+    @Option(names = {"--read-ahead"}, description = "Number of buffers to read ahead into with a dedicated reader thread, 0 for none")
+    private int readAhead = 0;
+
+    /**
+     * Size of the chunks the image gets scanned in.
+     */
+    @Option(names = {"--buffer-size"}, description = "Size of each buffer, a multiple of 64K, e.g. 16M", converter = BufferSizeConverter.class)
+    private int bufferSize = ImageScanner.CHUNK_SIZE;
+
+    /**
+     * Reuse and store the results in a sidecar file?.
+     */
+    @Option(names = {"-c", "--cache"}, description = "Reuse and store the results in a sidecar file")
+    private boolean cache;
+
+    /**
+     * Write checkpoints during the scan?.
+     */
+    @Option(names = {"--checkpoint"}, description = "Write checkpoints during the scan, to resume it after an interruption")
+    private boolean checkpoint;
+
+    /**
+     * Resume an interrupted scan from its last checkpoint?.
+     */
+    @Option(names = {"--resume"}, description = "Resume an interrupted scan from its last checkpoint, implies --checkpoint")
+    private boolean resume;
+
+    /**
+     * Skip the interiors of partitions with a plausible boot sector?.
+     */
+    @Option(names = {"-g", "--guided"}, description = "Skip the interiors of partitions with a plausible boot sector")
+    private boolean guided;
+
+    /**
+     * Skip partitions only, if their FAT and root directory are consistent too?.
+     */
+    @Option(names = {"--probe"}, description = "Skip partitions only, if their FAT and root directory are consistent too, implies --guided")
+    private boolean probe;
+
+    /**
+     * Probe the most likely locations first?.
+     */
+    @Option(names = {"-p", "--prioritized"}, description = "Probe the most likely root sector locations first, then scan linearly")
+    private boolean prioritized;
+
+    /**
+     * Time limit in seconds for prioritized scans. 0 for no limit.
+     */
+    @Option(names = {"--deadline"}, description = "Stop after the given number of seconds, implies --prioritized")
+    private double deadline = 0;
+
+    /**
+     * Number of threads to scan with. 0 uses the number of available processors.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set number of threads to scan with.
+     *
+     * @param threads Number of threads. 0 uses the number of available processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Number of buffers to read ahead into with a dedicated reader thread. 0 for no read-ahead.
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Set number of buffers to read ahead into.
+     *
+     * @param readAhead Number of buffers. 0 for no read-ahead.
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Size of the chunks the image gets scanned in.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set size of the chunks the image gets scanned in.
+     *
+     * @param bufferSize Size in bytes. Has to be a positive multiple of 64 KB.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Reuse and store the results in a sidecar file, see {@link ScanCache}?.
+     */
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * Set whether to reuse and store the results in a sidecar file.
+     *
+     * @param cache Use the scan cache?.
+     */
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Write checkpoints during the scan, see {@link ScanCheckpoint}?.
+     * Implied by {@link #isResume()}.
+     */
+    public boolean isCheckpoint() {
+        return checkpoint || resume;
+    }
+
+    /**
+     * Set whether to write checkpoints during the scan.
+     *
+     * @param checkpoint Write checkpoints?.
+     */
+    public void setCheckpoint(boolean checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Resume an interrupted scan from its last checkpoint, see {@link ScanCheckpoint}?.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Set whether to resume an interrupted scan from its last checkpoint.
+     *
+     * @param resume Resume?.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Skip the interiors of partitions with a plausible boot sector, see {@link ScanGuide}?.
+     * Implied by {@link #isProbe()}.
+     */
+    public boolean isGuided() {
+        return guided || probe;
+    }
+
+    /**
+     * Set whether to skip the interiors of partitions with a plausible boot sector.
+     *
+     * @param guided Guided scan?.
+     */
+    public void setGuided(boolean guided) {
+        this.guided = guided;
+    }
+
+    /**
+     * Skip partitions only, if their FAT and root directory are consistent too?.
+     */
+    public boolean isProbe() {
+        return probe;
+    }
+
+    /**
+     * Set whether to skip partitions only, if their FAT and root directory are consistent too.
+     *
+     * @param probe Probe FAT and root directory?.
+     */
+    public void setProbe(boolean probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * Probe the most likely locations first, see {@link PriorityScan}?.
+     * Implied by a time limit.
+     */
+    public boolean isPrioritized() {
+        return prioritized || deadline > 0;
+    }
+
+    /**
+     * Set whether to probe the most likely locations first.
+     *
+     * @param prioritized Prioritized scan?.
+     */
+    public void setPrioritized(boolean prioritized) {
+        this.prioritized = prioritized;
+    }
+
+    /**
+     * Time limit in milliseconds for prioritized scans. 0 for no limit.
+     */
+    public long getTimeLimit() {
+        return (long) (deadline * 1000);
+    }
+
+    /**
+     * Set time limit for prioritized scans.
+     *
+     * @param timeLimit Time limit in milliseconds. 0 for no limit.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.deadline = timeLimit / 1000.0;
+    }
+
+    /**
+     * Parse the size of the buffers.
+     *
+     * @param size Size with optional suffix K, M or G, e.g. "16M".
+     * @return Size in bytes.
+     */
+    public static int parseBufferSize(String size) {
+        long bytes = GenerateImage.parseSize(size);
+        if (bytes <= 0 || bytes > 1024 * 1024 * 1024) {
+            throw new IllegalArgumentException("Invalid buffer size " + size + ".");
+        }
+        if (bytes % (64 * 1024) != 0) {
+            throw new IllegalArgumentException("Buffer size " + size + " is not a multiple of 64K.");
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Converter for buffer sizes with optional suffix, see {@link #parseBufferSize(String)}.
+     */
+    public static class BufferSizeConverter implements ITypeConverter<Integer> {
+        @Override
+        public Integer convert(String value) {
+            return parseBufferSize(value);
+        }
+    }
+}
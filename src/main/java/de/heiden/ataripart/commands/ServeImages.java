@@ -0,0 +1,331 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ImageCache;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.DefaultExceptionHandler;
+import picocli.CommandLine.ExecutionException;
+import picocli.CommandLine.HelpCommand;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.RunLast;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The serve command answers requests for list, analyze, partitions and files on a loopback socket.
+ * <p>
+ * Open images and their parsed root sectors are kept in an {@link ImageCache},
+ * so repeated requests for the same image neither pay the JVM startup nor parse the image again.
+ * <p>
+ * Each connection carries a single request: One line with the command and its options, like on the command line,
+ * e.g. {@code list -o jsonl /data/disk.img}. Arguments containing spaces have to be quoted with double quotes.
+ * The server answers with the output of the command and closes the connection.
+ * Relative paths are relative to the working directory of the server.
+ * <p>
+ * Requests run with the permissions of the server. So each connection has to start with a line holding the secret token
+ * from the token file, by default {@code ~/.ataripart/serve.token}, before the request line.
+ * The token file gets created with a random token on the first start, readable by its owner only.
+ */
+public class ServeImages {
+    /**
+     * Number of random bytes of a generated token.
+     */
+    private static final int TOKEN_BYTES = 32;
+
+    /**
+     * Output.
+     */
+    private final PrintStream out;
+
+    /**
+     * Cache of open images.
+     */
+    private ImageCache cache;
+
+    /**
+     * Server socket.
+     */
+    private ServerSocket server;
+
+    /**
+     * Secret token, clients have to send before their request.
+     */
+    private byte[] token;
+
+    /**
+     * Constructor, writing to stdout.
+     */
+    public ServeImages() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Stream to write the output to.
+     */
+    public ServeImages(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Serve requests until a shutdown request is received.
+     *
+     * @param port Port to listen on. 0 for any free port.
+     * @param mapped Memory map the hard disk images?.
+     * @param cacheSize Maximum number of cached images.
+     * @param threads Number of requests to handle concurrently. 0 uses the number of available processors.
+     * @param tokenFile File with the secret token. Null for {@link #defaultTokenFile()}. Gets created, if missing.
+     */
+    public void serve(int port, boolean mapped, int cacheSize, int threads, Path tokenFile) throws IOException {
+        Path file = tokenFile != null ? tokenFile : defaultTokenFile();
+        token = token(file).getBytes(UTF_8);
+        out.println("Requiring token from " + file.toAbsolutePath());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        try (ImageCache cache = new ImageCache(cacheSize, mapped);
+             ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            this.cache = cache;
+            this.server = server;
+            out.println("Listening on " + server.getLocalSocketAddress());
+
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    if (server.isClosed()) {
+                        // Shutdown request.
+                        break;
+                    }
+                    throw e;
+                }
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+            out.println("Stopped");
+        }
+    }
+
+    /**
+     * Handle a single request.
+     *
+     * @param socket Connection of the client.
+     */
+    private void handle(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF_8));
+             PrintStream response = new PrintStream(new BufferedOutputStream(client.getOutputStream()), false, UTF_8.name())) {
+            String secret = in.readLine();
+            if (secret == null || !MessageDigest.isEqual(token, secret.trim().getBytes(UTF_8))) {
+                response.println("Invalid token.");
+                out.println("Rejected request from " + client.getRemoteSocketAddress() + ": Invalid token.");
+                return;
+            }
+            String request = in.readLine();
+            if (request == null || request.trim().isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            CommandLine commandLine = new CommandLine(new Requests(response));
+            commandLine.setCaseInsensitiveEnumValuesAllowed(true);
+            try {
+                commandLine.parseWithHandlers(
+                        new RunLast().useOut(response).useErr(response),
+                        new DefaultExceptionHandler<List<Object>>().useOut(response).useErr(response),
+                        tokenize(request));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof NoSuchFileException) {
+                    response.println("File " + cause.getMessage() + " not found.");
+                } else {
+                    response.println(cause.getLocalizedMessage());
+                }
+            }
+            out.println(request + " (" + (System.nanoTime() - start) / 1000000 + " ms)");
+
+        } catch (IOException e) {
+            out.println("Request failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Default token file: "serve.token" in the directory ".ataripart" in the home directory of the user.
+     */
+    public static Path defaultTokenFile() {
+        return Paths.get(System.getProperty("user.home"), ".ataripart", "serve.token");
+    }
+
+    /**
+     * Read the secret token from the token file. Creates the token file with a random token, if it is missing.
+     *
+     * @param file Token file.
+     * @return Token.
+     */
+    static String token(Path file) throws IOException {
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, UTF_8);
+            if (lines.isEmpty() || lines.get(0).trim().isEmpty()) {
+                throw new IOException("Token file " + file.toAbsolutePath() + " is empty.");
+            }
+            return lines.get(0).trim();
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(2 * TOKEN_BYTES);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xFF));
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        if (Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            // Readable by the owner only, before the token gets written.
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, (token + "\n").getBytes(UTF_8));
+        return token.toString();
+    }
+
+    /**
+     * Split a request into arguments. Arguments may be quoted with double quotes.
+     *
+     * @param request Request.
+     * @return Arguments.
+     */
+    static String[] tokenize(String request) {
+        List<String> result = new ArrayList<>();
+        StringBuilder argument = new StringBuilder();
+        boolean quoted = false;
+        boolean inArgument = false;
+        for (int i = 0; i < request.length(); i++) {
+            char c = request.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inArgument = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inArgument) {
+                    result.add(argument.toString());
+                    argument.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                argument.append(c);
+                inArgument = true;
+            }
+        }
+        if (inArgument) {
+            result.add(argument.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Requests understood by the server. Mirrors the commands of the command line
+     * and shares their options via {@link OutputOptions}, {@link ListOptions}, {@link ScanOptions} and {@link PartitionOptions}.
+     * Only -m and --stats are missing, because they are settings of the server process.
+     * Public, because picocli does not invoke non-public command methods without parameters.
+     */
+    @Command(name = "ataripart", subcommands = { HelpCommand.class })
+    public class Requests {
+        /**
+         * Stream to write the response to.
+         */
+        private final PrintStream response;
+
+        /**
+         * Constructor.
+         *
+         * @param response Stream to write the response to.
+         */
+        private Requests(PrintStream response) {
+            this.response = response;
+        }
+
+        @Command(description = "Search a whole hard disk image for root sectors.")
+        private void analyze(
+                @Mixin OutputOptions output,
+                @Mixin ScanOptions options,
+                @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image)
+                throws Exception {
+
+            try (ImageCache.Entry entry = cache.acquire(image)) {
+                new AnalyzeImage(response).analyze(entry.getImage(), output.getFormat(), false, options);
+            }
+        }
+
+        @Command(description = "List all root sectors and their partitions, starting with the MBR.")
+        private void list(
+                @Mixin ListOptions options,
+                @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image)
+                throws Exception {
+
+            try (ImageCache.Entry entry = cache.acquire(image)) {
+                new ListPartitions(response).list(entry.getImage(), entry.getRootSectors(), options.isBackup(), options.getFormat());
+            }
+        }
+
+        @Command(description = "Extract all partitions to a directory.")
+        private void partitions(
+                @Mixin PartitionOptions options,
+                @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image,
+                @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy partition contents to", defaultValue = ExtractPartitions.DESTINATION) Path destinationDir)
+                throws Exception {
+
+            try (ImageCache.Entry entry = cache.acquire(image)) {
+                new ExtractPartitions(response).extract(entry.getImage(), entry.getRootSectors(), destinationDir, false, options);
+            }
+        }
+
+        @Command(description = "Extract all files from all partitions to a directory.")
+        private void files(
+                @Parameters(index = "0", paramLabel = "image", description = "Hard disk image") Path image,
+                @Parameters(index = "1", paramLabel = "destination", description = "Directory to copy files to", defaultValue = ExtractPartitions.DESTINATION) Path destinationDir)
+                throws Exception {
+
+            try (ImageCache.Entry entry = cache.acquire(image)) {
+                new ExtractFiles(response).extract(entry.getImage(), entry.getRootSectors(), destinationDir, false);
+            }
+        }
+
+        @Command(description = "Display statistics of the image cache.")
+        public void cache() {
+            response.println(cache.getStatistics());
+        }
+
+        @Command(description = "Stop the server.")
+        public void shutdown() throws IOException {
+            response.println("Stopping");
+            server.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.heiden.ataripart.image;
 
+import de.heiden.ataripart.jfr.BootSectorParseEvent;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -272,6 +274,30 @@ public class BootSector {
         return checksum;
     }
 
+    /**
+     * Does the BIOS parameter block describe a FAT file system, which fits into the partition?.
+     *
+     * @param length Length of the partition in bytes.
+     */
+    public boolean isPlausible(long length) {
+        if (bytesPerSector < 512 || bytesPerSector > 32768 || Integer.bitCount(bytesPerSector) != 1 ||
+                sectorsPerCluster == 0 || Integer.bitCount(sectorsPerCluster) != 1 ||
+                reservedSectors == 0 || numFATs < 1 || numFATs > 2 ||
+                maxDirectoryEntries == 0 || sectorsPerFAT == 0 ||
+                sectors == 0 || sectors * bytesPerSector > length) {
+            return false;
+        }
+
+        long rootDirectorySectors = ((long) maxDirectoryEntries * 32 + bytesPerSector - 1) / bytesPerSector;
+        long dataSectors = sectors - reservedSectors - (long) numFATs * sectorsPerFAT - rootDirectorySectors;
+        if (dataSectors <= 0) {
+            return false;
+        }
+        // Each FAT needs at least 12 bits per cluster.
+        long clusters = dataSectors / sectorsPerCluster;
+        return (long) sectorsPerFAT * bytesPerSector * 8 / 12 >= clusters + 2;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder(256);
@@ -342,6 +368,7 @@ public class BootSector {
      * @param disk Hard disk image part. The buffer position has to be set to the start of the boot sector.
      */
     public static BootSector parse(ByteBuffer disk) {
+        BootSectorParseEvent event = BootSectorParseEvent.start();
         // All boot sector values are little endian, due to MS DOS compatibility.
         ByteBuffer bootSector = disk.slice();
         bootSector.order(ByteOrder.LITTLE_ENDIAN);
@@ -394,6 +421,7 @@ public class BootSector {
 
 //        System.out.println(hexDump(disk, 512));
 
+        event.record(fileSystem.name(), bytesPerSector);
         return new BootSector(
                 fileSystem,
                 systemName,
@@ -0,0 +1,265 @@
+package de.heiden.ataripart.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * LRU cache of open hard disk images and their parsed root sectors.
+ * <p>
+ * Images are identified by their path, size and modification time,
+ * so a changed image gets opened and parsed again.
+ * Evicted images are closed, as soon as they are not used anymore.
+ * <p>
+ * Thread safety: All methods may be called concurrently from any number of threads.
+ */
+public class ImageCache implements Closeable {
+    /**
+     * Maximum number of cached images.
+     */
+    private final int capacity;
+
+    /**
+     * Memory map the hard disk images?.
+     */
+    private final boolean mapped;
+
+    /**
+     * Cached images by absolute path, in access order.
+     */
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Number of cache hits.
+     */
+    private long hits;
+
+    /**
+     * Number of cache misses.
+     */
+    private long misses;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of cached images.
+     * @param mapped Memory map the hard disk images?.
+     */
+    public ImageCache(int capacity, boolean mapped) {
+        this.capacity = Math.max(1, capacity);
+        this.mapped = mapped;
+    }
+
+    /**
+     * Get a cached image. Opens it, if it is not cached or has been changed.
+     * The returned entry has to be closed after use.
+     *
+     * @param file The file with the hard disk image.
+     */
+    public Entry acquire(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+
+        Entry entry;
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry != null && (entry.size != size || entry.modified != modified)) {
+                // The image has been changed.
+                entries.remove(path);
+                evicted.add(entry);
+                entry = null;
+            }
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+                entry = new Entry(path, size, modified);
+                entries.put(path, entry);
+                for (Iterator<Entry> iter = entries.values().iterator(); entries.size() > capacity && iter.hasNext(); ) {
+                    evicted.add(iter.next());
+                    iter.remove();
+                }
+            }
+            entry.users++;
+        }
+
+        try {
+            evict(evicted);
+        } catch (IOException e) {
+            try {
+                entry.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return entry;
+    }
+
+    /**
+     * Statistics of the cache, e.g. "2 images, 10 hits, 2 misses".
+     */
+    public synchronized String getStatistics() {
+        return entries.size() + " images, " + hits + " hits, " + misses + " misses";
+    }
+
+    /**
+     * Evict all images.
+     */
+    @Override
+    public void close() throws IOException {
+        List<Entry> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        evict(evicted);
+    }
+
+    /**
+     * Evict entries. Evicts all of them, even if closing some of their images fails.
+     *
+     * @param evicted Entries, which have been removed from the cache.
+     * @throws IOException The first failure, with the following ones as suppressed exceptions.
+     */
+    private static void evict(List<Entry> evicted) throws IOException {
+        IOException failure = null;
+        for (Entry entry : evicted) {
+            try {
+                entry.evict();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Cached image.
+     */
+    public class Entry implements Closeable {
+        /**
+         * Absolute path of the image.
+         */
+        private final Path path;
+
+        /**
+         * Size of the image file.
+         */
+        private final long size;
+
+        /**
+         * Modification time of the image file.
+         */
+        private final long modified;
+
+        /**
+         * Open image. Null, if not opened yet.
+         */
+        private ImageReader image;
+
+        /**
+         * Master root sector and all following xgm root sectors. Null, if not read yet.
+         */
+        private List<RootSector> rootSectors;
+
+        /**
+         * Number of users. Guarded by the cache.
+         */
+        private int users;
+
+        /**
+         * Has this entry been evicted from the cache?. Guarded by the cache.
+         */
+        private boolean evicted;
+
+        /**
+         * Constructor.
+         *
+         * @param path Absolute path of the image.
+         * @param size Size of the image file.
+         * @param modified Modification time of the image file.
+         */
+        private Entry(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Open image.
+         * Opening takes place on first use only, outside of the cache lock,
+         * because e.g. gzip compressed images may need to build their index first.
+         */
+        public synchronized ImageReader getImage() throws IOException {
+            if (image == null) {
+                image = ImageReader.open(path, mapped);
+            }
+            return image;
+        }
+
+        /**
+         * Master root sector and all following xgm root sectors, see {@link ImageReader#readRootSectors()}.
+         * Must not be modified.
+         */
+        public synchronized List<RootSector> getRootSectors() throws IOException {
+            if (rootSectors == null) {
+                rootSectors = Collections.unmodifiableList(getImage().readRootSectors());
+            }
+            return rootSectors;
+        }
+
+        /**
+         * Release this entry after use.
+         */
+        @Override
+        public void close() throws IOException {
+            boolean close;
+            synchronized (ImageCache.this) {
+                users--;
+                close = evicted && users == 0;
+            }
+            if (close) {
+                closeImage();
+            }
+        }
+
+        /**
+         * Mark this entry as evicted. Closes the image, if it is not used.
+         */
+        private void evict() throws IOException {
+            boolean close;
+            synchronized (ImageCache.this) {
+                evicted = true;
+                close = users == 0;
+            }
+            if (close) {
+                closeImage();
+            }
+        }
+
+        /**
+         * Close the image, if it has been opened.
+         */
+        private synchronized void closeImage() throws IOException {
+            if (image != null) {
+                image.close();
+                image = null;
+            }
+        }
+    }
+}
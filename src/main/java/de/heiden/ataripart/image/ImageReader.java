@@ -1,10 +1,15 @@
 package de.heiden.ataripart.image;
 
+import de.heiden.ataripart.image.gzip.GzipImageReader;
+import de.heiden.ataripart.jfr.ImageReadEvent;
+import de.heiden.ataripart.jfr.ImageTransferEvent;
+import de.heiden.ataripart.jfr.XgmChainEvent;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +18,13 @@ import static java.nio.file.StandardOpenOption.READ;
 
 /**
  * Hard disk image reader.
+ * <p>
+ * Thread safety: All methods of this class may be called concurrently from any number of threads.
+ * Reads use positional reads and never change the position of the underlying channel,
+ * so a single open image can be shared without locks and without additional file descriptors.
+ * Buffers passed to the read methods must not be shared between threads.
+ * Closing the image while reads are in progress makes these reads fail with an
+ * {@link java.nio.channels.AsynchronousCloseException}.
  */
 public class ImageReader implements Closeable {
     /**
@@ -25,6 +37,11 @@ public class ImageReader implements Closeable {
      */
     private FileChannel channel;
 
+    /**
+     * Statistics. Null, if disabled.
+     */
+    private volatile ImageStats stats;
+
     /**
      * Constructor.
      *
@@ -35,19 +52,24 @@ public class ImageReader implements Closeable {
         this.channel = FileChannel.open(file, READ);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            close();
-        } finally {
-            super.finalize();
+    /**
+     * Open a hard disk image.
+     *
+     * @param file The file with the hard disk image.
+     * @param mapped Memory map the hard disk image?. Ignored for gzip compressed images ("*.gz").
+     */
+    public static ImageReader open(Path file, boolean mapped) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            // Compressed images cannot be memory mapped.
+            return new GzipImageReader(file);
         }
+        return mapped ? new MappedImageReader(file) : new ImageReader(file);
     }
 
     /**
      * Close this tool.
      * <p>
-     * This will release the underlying hard disk image file.
+     * This will release the underlying hard disk image file. Readers have to be closed explicitly.
      */
     @Override
     public void close() throws IOException {
@@ -63,27 +85,114 @@ public class ImageReader implements Closeable {
 
     /**
      * Hard disk image file channel.
+     * Concurrent users must not change the position of the channel, but use positional reads only.
      */
     public FileChannel getChannel() {
         return channel;
     }
 
+    /**
+     * Statistics. Null, if disabled.
+     */
+    public ImageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Enable statistics.
+     *
+     * @param stats Statistics. Null to disable them.
+     */
+    public void setStats(ImageStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Record bytes read for the statistics, if enabled.
+     *
+     * @param bytes Number of bytes read.
+     */
+    protected void count(long bytes) {
+        ImageStats stats = this.stats;
+        if (stats != null && bytes > 0) {
+            stats.read(bytes);
+        }
+    }
+
+    /**
+     * Is the hard disk image memory mapped?.
+     */
+    public boolean isMapped() {
+        return false;
+    }
+
+    /**
+     * Size of the hard disk image in bytes.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
     /**
      * Read from image at the given position to the buffer.
      * <p>
+     * Fills the whole buffer, unless the end of the image is reached.
      * Sets buffer position to 0.
      *
      * @param position Absolute position in hard disk image.
      * @param buffer Buffer to read to.
-     * @return Number of bytes read.
+     * @return Number of bytes read, -1 if position is at or beyond the end of the image.
      */
     public int read(long position, ByteBuffer buffer) throws IOException {
+        ImageReadEvent event = ImageReadEvent.start();
         buffer.clear();
-        int num = channel.position(position).read(buffer);
+        int num = readFully(position, buffer);
         buffer.position(0);
+        count(num);
+        event.record(position, buffer.capacity(), num);
         return num;
     }
 
+    /**
+     * Get the contents of the image at the given position.
+     * <p>
+     * The position of the returned buffer is 0 and its limit is the number of bytes available.
+     * This implementation reads into the given buffer.
+     * Memory mapped images return a view of the mapping instead, without any copy.
+     *
+     * @param position Absolute position in hard disk image.
+     * @param length Maximum number of bytes. Must not exceed the capacity of the buffer.
+     * @param buffer Buffer to read to, if needed. Null to allocate one on demand.
+     * @return Buffer with the contents of the image.
+     */
+    public ByteBuffer read(long position, int length, ByteBuffer buffer) throws IOException {
+        ImageReadEvent event = ImageReadEvent.start();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        readFully(position, buffer);
+        buffer.flip();
+        count(buffer.limit());
+        event.record(position, length, buffer.limit());
+        return buffer;
+    }
+
+    /**
+     * Read from image at the given position until the buffer is full or the end of the image is reached.
+     * Uses positional reads only.
+     *
+     * @param position Absolute position in hard disk image.
+     * @param buffer Buffer to read to, starting at its position.
+     * @return Number of bytes read, -1 if position is at or beyond the end of the image.
+     */
+    protected int readFully(long position, ByteBuffer buffer) throws IOException {
+        int num = 0;
+        for (int read; buffer.hasRemaining() && (read = channel.read(buffer, position + num)) >= 0; num += read);
+        return num == 0 && buffer.hasRemaining() ? -1 : num;
+    }
+
     /**
      * Copy from image at the given position to the given channel.
      *
@@ -91,9 +200,12 @@ public class ImageReader implements Closeable {
      * @param count Number of bytes to copy.
      * @param destination Channel to copy to.
      */
-    public void transferTo(long position, long count, FileChannel destination) throws IOException {
+    public void transferTo(long position, long count, WritableByteChannel destination) throws IOException {
+        ImageTransferEvent event = ImageTransferEvent.start();
         long copied = 0;
         for (long num; copied < count && (num = channel.transferTo(position + copied, count - copied, destination)) > 0; copied += num);
+        count(copied);
+        event.record(position, copied);
         if (copied != count) {
             throw new IOException("Transferred wrong amount of bytes: " + copied + " instead of " + count + ".");
         }
@@ -110,8 +222,10 @@ public class ImageReader implements Closeable {
 
         for (Partition partition : rootSector.getPartitions()) {
             if (partition.isXGM()) {
+                XgmChainEvent event = XgmChainEvent.start();
                 // remember the offset of the (first) xgm root sector.
                 readXGMRootSectors(partition.getAbsoluteStart(), partition.getAbsoluteStart(), result);
+                event.record(partition.getAbsoluteStart(), result.size() - 1);
 
                 // Only one XGM partition per root sector is allowed.
                 break;
@@ -151,21 +265,51 @@ public class ImageReader implements Closeable {
      * @param diskOffset Offset in disk image to read first root sector from.
      */
     public RootSector readRootSector(long xgmOffset, long offset, long diskOffset) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(512);
-        buffer.order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer buffer = isMapped() ? null : ByteBuffer.allocate(512);
 
         // Read root sector with partitions.
-        read(diskOffset, buffer);
-        RootSector result = RootSector.parse(xgmOffset, offset, buffer);
+        RootSector result = RootSector.parse(xgmOffset, offset, readSector(diskOffset, buffer));
 
         // Read BIOS parameter blocks for real partitions.
         for (Partition partition : result.getRealPartitions()) {
-            if (partition.getAbsoluteStart() + 512 <= channel.size()) {
-                read(partition.getAbsoluteStart(), buffer);
-                partition.setBootSector(BootSector.parse(buffer));
+            if (partition.getAbsoluteStart() + 512 <= size()) {
+                partition.setBootSector(BootSector.parse(readSector(partition.getAbsoluteStart(), buffer)));
             }
         }
 
         return result;
     }
+
+    /**
+     * Read root sector (non-recursively) as a view.
+     * Neither parses the root sector nor reads any boot sectors.
+     *
+     * @param xgmOffset Absolute offset of the (first) xgm root sector.
+     * @param offset Logical offset in disk image, normally should be set to diskOffset.
+     * @param diskOffset Offset in disk image to read first root sector from.
+     * @param view View to wrap around the root sector.
+     * @return view
+     */
+    public RootSectorView readRootSector(long xgmOffset, long offset, long diskOffset, RootSectorView view) throws IOException {
+        return view.wrap(xgmOffset, offset, readSector(diskOffset, isMapped() ? null : ByteBuffer.allocate(512)), 0);
+    }
+
+    /**
+     * Read a single sector.
+     * Sectors beyond the end of the image are padded with zeros.
+     *
+     * @param position Absolute position in hard disk image.
+     * @param buffer Buffer to read to, if needed. Null to allocate one on demand.
+     * @return Buffer with the sector.
+     */
+    private ByteBuffer readSector(long position, ByteBuffer buffer) throws IOException {
+        ByteBuffer sector = read(position, 512, buffer);
+        if (sector.remaining() < 512) {
+            ByteBuffer padded = ByteBuffer.allocate(512);
+            padded.put(sector);
+            padded.clear();
+            return padded;
+        }
+        return sector;
+    }
 }
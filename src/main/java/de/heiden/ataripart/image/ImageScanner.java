@@ -0,0 +1,430 @@
+package de.heiden.ataripart.image;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Searches a whole hard disk image for root sectors.
+ * <p>
+ * The image is split into chunks which are scanned in parallel on a fork join pool.
+ * Each worker thread reads into its own buffer, memory mapped images are scanned directly.
+ * With read-ahead, a dedicated reader thread fills a fixed number of rotating buffers in order instead,
+ * so reading the next chunks overlaps with parsing the current ones, even with a single worker thread.
+ * Hits are reported in ascending disk offset order,
+ * as soon as all chunks up to the hit have been scanned.
+ */
+public class ImageScanner {
+    /**
+     * Default size of the chunks the image gets split into.
+     */
+    public static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Granularity of the chunk size.
+     */
+    private static final int CHUNK_ALIGNMENT = 64 * 1024;
+
+    /**
+     * Hard disk image.
+     */
+    private final ImageReader image;
+
+    /**
+     * Number of threads to scan with.
+     */
+    private final int threads;
+
+    /**
+     * Size of the chunks the image gets split into.
+     */
+    private final int chunkSize;
+
+    /**
+     * Number of read-ahead buffers. 0 for no read-ahead.
+     */
+    private final int readAhead;
+
+    /**
+     * Buffer of each worker thread, if reading without read-ahead.
+     */
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    /**
+     * Ranges of the image, which do not need to be scanned. Accessed from the calling thread of the scan only.
+     */
+    private final List<long[]> skipped = new ArrayList<>();
+
+    /**
+     * Has the scan been stopped?.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param image Hard disk image.
+     * @param threads Number of threads to scan with. 0 uses the number of available processors.
+     */
+    public ImageScanner(ImageReader image, int threads) {
+        this(image, threads, CHUNK_SIZE, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param image Hard disk image.
+     * @param threads Number of threads to scan with. 0 uses the number of available processors.
+     * @param chunkSize Size of the chunks the image gets split into. Has to be a positive multiple of 64 KB.
+     * @param readAhead Number of read-ahead buffers of the chunk size, filled by a dedicated reader thread.
+     *   0 for no read-ahead. Ignored for memory mapped images.
+     */
+    public ImageScanner(ImageReader image, int threads, int chunkSize, int readAhead) {
+        if (chunkSize <= 0 || chunkSize % CHUNK_ALIGNMENT != 0) {
+            throw new IllegalArgumentException("Chunk size " + chunkSize + " is not a positive multiple of 64 KB.");
+        }
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("Invalid number of read-ahead buffers " + readAhead + ".");
+        }
+
+        this.image = image;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize;
+        this.readAhead = image.isMapped() ? 0 : readAhead;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(chunkSize));
+    }
+
+    /**
+     * Number of threads to scan with.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Size of the chunks the image gets split into.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Number of read-ahead buffers. 0 for no read-ahead.
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Scan the whole image for root sectors.
+     * <p>
+     * Does NOT evaluate partition information to follow XGM partitions.
+     *
+     * @param consumer Consumer for all found root sectors. Gets called from the calling thread only.
+     */
+    public void scan(Consumer<RootSector> consumer) throws IOException {
+        scan(consumer, null);
+    }
+
+    /**
+     * Scan the whole image for root sectors, reusing the results of previous scans.
+     * <p>
+     * If the image is unchanged, only the cached root sectors are read.
+     * Otherwise the whole image gets scanned. The results of this scan are recorded in the cache, but the cache does not get saved.
+     * <p>
+     * Does NOT evaluate partition information to follow XGM partitions.
+     *
+     * @param consumer Consumer for all found root sectors. Gets called from the calling thread only.
+     * @param cache Results of previous scans. Null to scan without cache.
+     */
+    public void scan(Consumer<RootSector> consumer, ScanCache cache) throws IOException {
+        scan(0, consumer, cache, null);
+    }
+
+    /**
+     * Scan the image for root sectors, starting at the given position.
+     * See {@link #scan(Consumer, ScanCache)}.
+     *
+     * @param start Position to start at. Has to be a multiple of the chunk size.
+     * @param consumer Consumer for all found root sectors. Gets called from the calling thread only.
+     * @param cache Results of previous scans. Null to scan without cache.
+     * @param progress Gets called from the calling thread with the position,
+     *   up to which all found root sectors have been reported. Null, if not needed.
+     */
+    public void scan(long start, Consumer<RootSector> consumer, ScanCache cache, LongConsumer progress) throws IOException {
+        if (start % chunkSize != 0) {
+            throw new IllegalArgumentException("Start " + start + " is not a multiple of the chunk size.");
+        }
+
+        if (cache != null && cache.isUnchanged()) {
+            for (long offset : cache.getHits()) {
+                if (offset >= start) {
+                    consumer.accept(readCandidate(offset));
+                }
+            }
+            return;
+        }
+
+        long size = image.size();
+        stopped = false;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ExecutorService reader = readAhead > 0 ? Executors.newSingleThreadExecutor(ImageScanner::readerThread) : null;
+        BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(Math.max(1, readAhead));
+        for (int i = 0; i < readAhead; i++) {
+            free.add(ByteBuffer.allocateDirect(chunkSize));
+        }
+        Deque<Future<List<RootSector>>> tasks = new ArrayDeque<>();
+        try {
+            // Limit the number of chunks in flight, to bound the memory used for not yet reported hits.
+            int maxTasks = Math.max(2 * threads, readAhead);
+            Deque<Long> chunks = new ArrayDeque<>();
+            long position = start;
+            while ((position < size || !tasks.isEmpty()) && !stopped) {
+                for (; position < size && tasks.size() < maxTasks; position += chunkSize) {
+                    long chunk = position;
+                    if (isSkipped(chunk, Math.min(size, chunk + chunkSize))) {
+                        continue;
+                    }
+                    tasks.add(reader == null ?
+                            pool.submit(() -> scanChunk(chunk, cache)) :
+                            readAhead(chunk, cache, reader, pool, free));
+                    chunks.add(chunk);
+                }
+                if (tasks.isEmpty()) {
+                    // The rest of the image has been skipped.
+                    break;
+                }
+
+                chunks.remove();
+                for (RootSector rootSector : join(tasks.remove())) {
+                    consumer.accept(rootSector);
+                }
+                if (progress != null) {
+                    progress.accept(chunks.isEmpty() ? Math.min(size, position) : chunks.peek());
+                }
+            }
+            if (progress != null && !stopped) {
+                progress.accept(size);
+            }
+        } finally {
+            // Interrupting a read would close the channel of the image, so let the chunks in flight complete first.
+            drain(tasks);
+            if (reader != null) {
+                reader.shutdownNow();
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read a chunk on the reader thread and scan it on the fork join pool afterwards.
+     * The chunks are read in order of their submission.
+     *
+     * @param position Absolute position of the chunk in the hard disk image.
+     * @param cache Results of previous scans. Null to scan without cache.
+     * @param reader Reader thread.
+     * @param pool Worker threads.
+     * @param free Free read-ahead buffers. The reader thread waits for a free buffer.
+     * @return Found root sectors in ascending order.
+     */
+    private Future<List<RootSector>> readAhead(long position, ScanCache cache,
+                                               ExecutorService reader, ForkJoinPool pool, BlockingQueue<ByteBuffer> free) {
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return image.read(position, chunkSize, free.take());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedIOException(new InterruptedIOException("Read-ahead has been interrupted."));
+                    }
+                }, reader)
+                .thenApplyAsync(buffer -> {
+                    try {
+                        return scanBuffer(position, buffer, cache);
+                    } finally {
+                        free.add(buffer);
+                    }
+                }, pool);
+    }
+
+    /**
+     * Create the reader thread for read-ahead.
+     *
+     * @param runnable Task of the thread.
+     */
+    private static Thread readerThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Stop the running scan. Chunks, whose root sectors have not been reported yet, are dropped.
+     * Has to be called from the calling thread of the scan, e.g. from its consumer or progress callback.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Has the last scan been stopped before reaching the end of the image?.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Do not scan a range of the image, e.g. the interior of a partition with a valid file system.
+     * Applies to the chunks, which have not been scanned yet and are completely inside the range.
+     * Has to be called from the calling thread of the scan, e.g. from its consumer.
+     *
+     * @param start Absolute start of the range.
+     * @param end Absolute end of the range (exclusive).
+     */
+    public void skip(long start, long end) {
+        if (start < end) {
+            skipped.add(new long[]{start, end});
+        }
+    }
+
+    /**
+     * Is a chunk completely inside a skipped range?.
+     * Skipped chunks are removed from the expected size of the statistics.
+     *
+     * @param start Absolute start of the chunk.
+     * @param end Absolute end of the chunk (exclusive).
+     */
+    private boolean isSkipped(long start, long end) {
+        for (long[] range : skipped) {
+            if (range[0] <= start && end <= range[1]) {
+                ImageStats stats = image.getStats();
+                if (stats != null) {
+                    stats.addTotal(start - end);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a single root sector, as it would have been found by a scan.
+     *
+     * @param offset Absolute offset of the root sector in the hard disk image.
+     */
+    public RootSector readCandidate(long offset) throws IOException {
+        return image.readRootSector(offset, offset, offset, new RootSectorView()).toRootSector();
+    }
+
+    /**
+     * Scan a single chunk of the image for root sectors.
+     *
+     * @param position Absolute position of the chunk in the hard disk image.
+     * @param cache Results of previous scans. Null to scan without cache.
+     * @return Found root sectors in ascending order.
+     */
+    private List<RootSector> scanChunk(long position, ScanCache cache) throws IOException {
+        // Chunks too big for a view of a mapped image get copied, so they need a buffer too.
+        boolean view = image.isMapped() && chunkSize <= MappedImageReader.MAX_VIEW_LENGTH;
+        return scanBuffer(position, image.read(position, chunkSize, view ? null : buffers.get()), cache);
+    }
+
+    /**
+     * Scan a single chunk of the image, which has already been read, for root sectors.
+     *
+     * @param position Absolute position of the chunk in the hard disk image.
+     * @param buffer Contents of the chunk.
+     * @param cache Results of previous scans. Null to scan without cache.
+     * @return Found root sectors in ascending order.
+     */
+    List<RootSector> scanBuffer(long position, ByteBuffer buffer, ScanCache cache) {
+        int num = buffer.limit();
+
+        ImageStats stats = image.getStats();
+        int rejected = 0;
+
+        List<RootSector> result = new ArrayList<>();
+        RootSectorView view = new RootSectorView();
+        for (int bufferOffset = 0; bufferOffset + 512 <= num; bufferOffset += 512) {
+            long diskOffset = position + bufferOffset;
+            if (view.wrap(diskOffset, diskOffset, buffer, bufferOffset).hasValidPartitions()) {
+                // Nearly all sectors are no root sectors, so just keep the few real ones.
+                result.add(view.toRootSector());
+            } else if (stats != null && RootSector.hasKnownPartitionType(buffer, bufferOffset)) {
+                rejected++;
+            }
+        }
+
+        if (cache != null) {
+            cache.update((int) (position / chunkSize), result.stream().mapToLong(RootSector::getOffset).toArray());
+        }
+        if (stats != null) {
+            stats.scanned(num / 512, result.size(), rejected);
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the result of a task.
+     *
+     * @param task Task.
+     * @return Result of task.
+     */
+    private static <T> T join(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan has been interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                // Read-ahead.
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Wait for the completion of tasks, whose results are not needed anymore.
+     *
+     * @param tasks Tasks. Their results and failures are dropped.
+     */
+    private static void drain(Deque<? extends Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // Dropped.
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.heiden.ataripart.image;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and progress statistics of reading a hard disk image.
+ * <p>
+ * Gets updated by {@link ImageReader} and {@link ImageScanner}, if set via {@link ImageReader#setStats(ImageStats)}.
+ * Without statistics, the only cost is a null check per read.
+ * <p>
+ * Thread safety: All methods may be called concurrently from any number of threads.
+ */
+public class ImageStats {
+    /**
+     * Bytes per MB.
+     */
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Seconds between progress reports.
+     */
+    private static final int REPORT_INTERVAL = 5;
+
+    /**
+     * Start time in nanoseconds.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Expected number of bytes to read. 0, if unknown.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Number of bytes read.
+     */
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * Number of sectors scanned for root sectors.
+     */
+    private final LongAdder sectorsScanned = new LongAdder();
+
+    /**
+     * Number of sectors, which may be root sectors.
+     */
+    private final LongAdder candidatesFound = new LongAdder();
+
+    /**
+     * Number of sectors, which have a partition entry with a known type, but no valid and active partition.
+     */
+    private final LongAdder candidatesRejected = new LongAdder();
+
+    /**
+     * Reporter of periodic progress. Null, if not started.
+     */
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Constructor.
+     *
+     * @param total Expected number of bytes to read. 0, if unknown.
+     */
+    public ImageStats(long total) {
+        this.total.set(total);
+    }
+
+    /**
+     * Adjust the expected number of bytes to read, e.g. if only a part of a partition gets read.
+     *
+     * @param delta Number of bytes to add. Negative to subtract.
+     */
+    public void addTotal(long delta) {
+        total.addAndGet(delta);
+    }
+
+    /**
+     * Record bytes read.
+     *
+     * @param bytes Number of bytes.
+     */
+    public void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Record a scanned part of the image.
+     *
+     * @param sectors Number of sectors scanned.
+     * @param found Number of sectors, which may be root sectors.
+     * @param rejected Number of sectors, which have been rejected as root sectors.
+     */
+    public void scanned(int sectors, int found, int rejected) {
+        sectorsScanned.add(sectors);
+        candidatesFound.add(found);
+        candidatesRejected.add(rejected);
+    }
+
+    /**
+     * Number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Number of sectors scanned for root sectors.
+     */
+    public long getSectorsScanned() {
+        return sectorsScanned.sum();
+    }
+
+    /**
+     * Number of sectors, which may be root sectors.
+     */
+    public long getCandidatesFound() {
+        return candidatesFound.sum();
+    }
+
+    /**
+     * Number of sectors, which have a partition entry with a known type, but no valid and active partition.
+     */
+    public long getCandidatesRejected() {
+        return candidatesRejected.sum();
+    }
+
+    /**
+     * Start to report the progress periodically.
+     *
+     * @param out Stream to report to, usually stderr.
+     */
+    public synchronized void start(PrintStream out) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println("Progress: " + this), REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop reporting the progress and report the final statistics.
+     *
+     * @param out Stream to report to, usually stderr.
+     */
+    public synchronized void stop(PrintStream out) {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        out.println("Statistics: " + this);
+    }
+
+    @Override
+    public String toString() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long read = getBytesRead();
+        long expected = total.get();
+        double rate = seconds > 0 ? read / MB / seconds : 0;
+
+        StringBuilder result = new StringBuilder(128);
+        result.append(String.format(Locale.ROOT, "%.1f MB read", read / MB));
+        if (expected > 0) {
+            result.append(String.format(Locale.ROOT, " (%.1f%%)", Math.min(100.0, read * 100.0 / expected)));
+        }
+        result.append(String.format(Locale.ROOT, " in %.1f s, %.1f MB/s", seconds, rate));
+        if (expected > read && rate > 0) {
+            long eta = (long) ((expected - read) / MB / rate);
+            result.append(String.format(Locale.ROOT, ", ETA %d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+        }
+        long sectors = getSectorsScanned();
+        if (sectors > 0) {
+            result.append(", ").append(sectors).append(" sectors scanned");
+            result.append(", ").append(getCandidatesFound()).append(" candidates found");
+            result.append(", ").append(getCandidatesRejected()).append(" rejected");
+        }
+
+        return result.toString();
+    }
+}
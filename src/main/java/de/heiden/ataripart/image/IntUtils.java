@@ -15,6 +15,37 @@ public class IntUtils {
      * @param length Number of bytes(!) to add
      */
     public static int checksumInt16(ByteBuffer bytes, int index, int length) {
+        int checksum = 0;
+        int i = 0;
+        while (i <= length - 8) {
+            // Read four 16 bit words at once. Even and odd words are added up in separate 32 bit lanes.
+            // The lanes are folded at least every 128 KB, so that they cannot overflow.
+            long even = 0;
+            long odd = 0;
+            for (int end = Math.min(length - 8, i + 0x20000 - 8); i <= end; i += 8) {
+                long words = bytes.getLong(index + i);
+                even += words & 0x0000FFFF0000FFFFL;
+                odd += (words >>> 16) & 0x0000FFFF0000FFFFL;
+            }
+            long sum = even + odd;
+            checksum += (int) sum + (int) (sum >>> 32);
+        }
+        for (; i < length; i += 2) {
+            checksum += getInt16(bytes, index + i);
+        }
+
+        return checksum & 0xFFFF;
+    }
+
+    /**
+     * Calculate checksum of sector word by word.
+     * Reference implementation of {@link #checksumInt16(ByteBuffer, int, int)}.
+     *
+     * @param bytes Sector data
+     * @param index Index to start at
+     * @param length Number of bytes(!) to add
+     */
+    static int checksumInt16Words(ByteBuffer bytes, int index, int length) {
         int checksum = 0;
         for (int i = 0; i < length; i += 2) {
             checksum += getInt16(bytes, index + i);
@@ -23,6 +54,30 @@ public class IntUtils {
         return checksum & 0xFFFF;
     }
 
+    /**
+     * Check whether all bytes are zero.
+     * Checks 8 bytes at once.
+     *
+     * @param bytes Data
+     * @param index Index to start at
+     * @param length Number of bytes to check
+     */
+    public static boolean isZero(ByteBuffer bytes, int index, int length) {
+        int end = index + length;
+        for (; index <= end - 8; index += 8) {
+            if (bytes.getLong(index) != 0) {
+                return false;
+            }
+        }
+        for (; index < end; index++) {
+            if (bytes.get(index) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Read a 8 bit "unsigned" integer.
      *
@@ -0,0 +1,129 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.jfr.ImageReadEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hard disk image reader, which memory maps the hard disk image.
+ * <p>
+ * A single mapping is limited to 2 GB, so the image is mapped as a set of overlapping windows.
+ * Windows are mapped lazily on first access. Only mapping takes a lock, reads of mapped windows do not.
+ * Because of the overlap, every region up to {@link #MAX_VIEW_LENGTH} bytes fits into a single window
+ * and can be handed out as a view of the mapping, without any copy.
+ * <p>
+ * Views are independent duplicates of the shared windows, so concurrent readers do not interfere.
+ * <p>
+ * Mappings are not released explicitly on {@link #close()}, but when they get garbage collected.
+ */
+public class MappedImageReader extends ImageReader {
+    /**
+     * Size of a single window.
+     */
+    private static final long WINDOW_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * Maximum length of views into the mapping. Overlap of windows.
+     */
+    public static final int MAX_VIEW_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Distance between the starts of two consecutive windows.
+     */
+    private static final long WINDOW_STRIDE = WINDOW_SIZE - MAX_VIEW_LENGTH;
+
+    /**
+     * Size of hard disk image.
+     */
+    private final long size;
+
+    /**
+     * Mapped windows. Null, if not mapped yet.
+     */
+    private final AtomicReferenceArray<MappedByteBuffer> windows;
+
+    /**
+     * Constructor.
+     *
+     * @param file The file with the hard disk image.
+     */
+    public MappedImageReader(Path file) throws IOException {
+        super(file);
+        this.size = getChannel().size();
+        this.windows = new AtomicReferenceArray<>((int) (size / WINDOW_STRIDE) + 1);
+    }
+
+    @Override
+    public boolean isMapped() {
+        return true;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() > MAX_VIEW_LENGTH) {
+            return super.read(position, buffer);
+        }
+        if (position >= size) {
+            return -1;
+        }
+        buffer.clear();
+        ByteBuffer view = read(position, buffer.remaining(), null);
+        int num = view.remaining();
+        buffer.put(view);
+        buffer.position(0);
+        return num;
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length, ByteBuffer buffer) throws IOException {
+        if (length > MAX_VIEW_LENGTH) {
+            // Too big for a view, so copy.
+            return super.read(position, length, buffer != null ? buffer : ByteBuffer.allocate(length));
+        }
+        if (position >= size) {
+            return ByteBuffer.allocate(0);
+        }
+
+        ImageReadEvent event = ImageReadEvent.start();
+
+        int index = (int) (position / WINDOW_STRIDE);
+        ByteBuffer view = window(index).duplicate();
+        int start = (int) (position - index * WINDOW_STRIDE);
+        view.limit(start + (int) Math.min(length, size - position));
+        view.position(start);
+        ByteBuffer result = view.slice();
+        count(result.limit());
+        event.record(position, length, result.limit());
+        return result;
+    }
+
+    /**
+     * Get window, map it if not already done.
+     *
+     * @param index Index of window.
+     */
+    private MappedByteBuffer window(int index) throws IOException {
+        MappedByteBuffer window = windows.get(index);
+        return window != null ? window : map(index);
+    }
+
+    /**
+     * Map window, if not already done by a concurrent reader.
+     *
+     * @param index Index of window.
+     */
+    private synchronized MappedByteBuffer map(int index) throws IOException {
+        MappedByteBuffer window = windows.get(index);
+        if (window == null) {
+            long start = index * WINDOW_STRIDE;
+            window = getChannel().map(MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+            windows.set(index, window);
+        }
+        return window;
+    }
+}
@@ -6,6 +6,21 @@ import java.nio.ByteBuffer;
  * Partition info.
  */
 public class Partition {
+    /**
+     * Type "GEM" as 24 bit big endian integer.
+     */
+    static final int GEM = 0x47454D;
+
+    /**
+     * Type "BGM" as 24 bit big endian integer.
+     */
+    static final int BGM = 0x42474D;
+
+    /**
+     * Type "XGM" as 24 bit big endian integer.
+     */
+    static final int XGM = 0x58474D;
+
     /**
      * Number of partition in its root sector.
      */
@@ -224,6 +239,34 @@ public class Partition {
     // Parsing
     //
 
+    /**
+     * Check a single partition info for a valid and active partition, without parsing it.
+     * Equivalent to {@code parse(number, disk, index).isValid() && ...isActive()}, but does not allocate anything.
+     *
+     * @param disk Hard disk image part, big endian
+     * @param index Index of partition info in hard disk image part
+     * @see #isValid()
+     * @see #isActive()
+     */
+    public static boolean isCandidate(ByteBuffer disk, int index) {
+        // Flags (without boot flag) and type.
+        int entry = disk.getInt(index) & 0x7FFFFFFF;
+        return entry == (0x01000000 | GEM) ||
+                entry == (0x01000000 | BGM) ||
+                entry == (0x01000000 | XGM);
+    }
+
+    /**
+     * Check a single partition info for a known type, regardless of its flags.
+     *
+     * @param disk Hard disk image part, big endian
+     * @param index Index of partition info in hard disk image part
+     */
+    static boolean hasKnownType(ByteBuffer disk, int index) {
+        int type = disk.getInt(index) & 0xFFFFFF;
+        return type == GEM || type == BGM || type == XGM;
+    }
+
     /**
      * Parse a single partition info.
      *
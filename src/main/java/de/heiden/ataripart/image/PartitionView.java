@@ -0,0 +1,187 @@
+package de.heiden.ataripart.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view of a partition info.
+ * <p>
+ * Reads all fields lazily from the underlying hard disk image part.
+ * Views are reused, so they are only valid until they get wrapped around another partition info.
+ * Use {@link #toPartition()} to keep a partition.
+ */
+public class PartitionView {
+    /**
+     * Hard disk image part, big endian.
+     */
+    private ByteBuffer disk;
+
+    /**
+     * Index of partition info in hard disk image part.
+     */
+    private int index;
+
+    /**
+     * Number of partition in its root sector.
+     */
+    private int number;
+
+    /**
+     * Absolute offset of the (first) xgm root sector.
+     */
+    private long xgmOffset;
+
+    /**
+     * Absolute offset in bytes of containing root sector.
+     */
+    private long rootSectorOffset;
+
+    /**
+     * Wrap this view around a partition info.
+     *
+     * @param number Number of partition in its containing root sector
+     * @param xgmOffset Absolute offset of the (first) xgm root sector
+     * @param offset Absolute offset in bytes of containing root sector
+     * @param disk Hard disk image part, big endian
+     * @param index Index of partition info in hard disk image part
+     * @return this
+     */
+    public PartitionView wrap(int number, long xgmOffset, long offset, ByteBuffer disk, int index) {
+        this.number = number;
+        this.xgmOffset = xgmOffset;
+        this.rootSectorOffset = offset;
+        this.disk = disk;
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Number of partition in its root sector.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Partition flags.
+     */
+    private int getFlags() {
+        return IntUtils.getInt8(disk, index);
+    }
+
+    /**
+     * Type of partition as 24 bit big endian integer.
+     */
+    private int getTypeBytes() {
+        return disk.getInt(index) & 0xFFFFFF;
+    }
+
+    /**
+     * Is the partition marked active?.
+     */
+    public boolean isActive() {
+        return (getFlags() & 0x01) != 0;
+    }
+
+    /**
+     * Is the partition marked bootable?.
+     */
+    public boolean isBoot() {
+        return (getFlags() & 0x80) != 0;
+    }
+
+    /**
+     * Type of partition.
+     * E.g. "BGM", "XGM" etc.
+     */
+    public String getType() {
+        return StringUtils.getString(disk, index + 1, 3);
+    }
+
+    /**
+     * Checks this partition for validity.
+     *
+     * @see Partition#isValid()
+     */
+    public boolean isValid() {
+        int type = getTypeBytes();
+        return (getFlags() & 0x7E) == 0 &&
+                (type == Partition.GEM || type == Partition.BGM || type == Partition.XGM);
+    }
+
+    /**
+     * Is this a GEM partition?.
+     */
+    public boolean isGEM() {
+        return getTypeBytes() == Partition.GEM;
+    }
+
+    /**
+     * Is this a BGM partition?.
+     */
+    public boolean isBGM() {
+        return getTypeBytes() == Partition.BGM;
+    }
+
+    /**
+     * Is this a XGM (pseudo) partition?.
+     */
+    public boolean isXGM() {
+        return getTypeBytes() == Partition.XGM;
+    }
+
+    /**
+     * Absolute offset in bytes.
+     */
+    public long getOffset() {
+        return isXGM() ? xgmOffset : rootSectorOffset;
+    }
+
+    /**
+     * Start of partition in bytes (absolute).
+     */
+    public long getAbsoluteStart() {
+        return getOffset() + getStart();
+    }
+
+    /**
+     * Start of partition in bytes relative to its root sector.
+     */
+    public long getStart() {
+        return IntUtils.getInt32(disk, index + 4) * 512;
+    }
+
+    /**
+     * Length of partition in bytes.
+     */
+    public long getLength() {
+        return IntUtils.getInt32(disk, index + 8) * 512;
+    }
+
+    /**
+     * End of partition in bytes (absolute).
+     */
+    public long getAbsoluteEnd() {
+        return getAbsoluteStart() + getLength();
+    }
+
+    /**
+     * End of partition in bytes relative to its root sector.
+     */
+    public long getEnd() {
+        return getStart() + getLength();
+    }
+
+    /**
+     * Convert this view into an owned partition.
+     */
+    public Partition toPartition() {
+        Partition partition = Partition.parse(number, disk, index);
+        partition.setOffset(getOffset());
+        return partition;
+    }
+
+    @Override
+    public String toString() {
+        return toPartition().toString();
+    }
+}
@@ -0,0 +1,223 @@
+package de.heiden.ataripart.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Searches a hard disk image for root sectors, probing the most likely locations first.
+ * <p>
+ * The locations are probed in this order:
+ * <ol>
+ *     <li>The master root sector, its backups behind it and at the end of the disk and the last sector of the image.</li>
+ *     <li>Locations referenced by partition infos with a known type, even if they are not valid or not active:
+ *     The start of XGM partitions and the end of other partitions.</li>
+ *     <li>Cylinder boundaries and the head boundaries of the first cylinder, derived from the CHS values of the
+ *     master root sector.</li>
+ * </ol>
+ * Afterwards the whole image gets scanned by the {@link ImageScanner}.
+ * Found root sectors are reported as soon as they are found, each only once.
+ * The scan stops, as soon as the time limit has been exceeded.
+ */
+public class PriorityScan {
+    /**
+     * Maximum number of probed cylinder boundaries.
+     */
+    private static final int MAX_CYLINDERS = 4096;
+
+    /**
+     * Hard disk image.
+     */
+    private final ImageReader image;
+
+    /**
+     * Scanner for the linear scan.
+     */
+    private final ImageScanner scanner;
+
+    /**
+     * Locations to probe: Offset and offset of the (first) xgm root sector.
+     */
+    private final Deque<long[]> references = new ArrayDeque<>();
+
+    /**
+     * Offsets of all referenced locations, to probe each only once.
+     */
+    private final Set<Long> referenced = new HashSet<>();
+
+    /**
+     * Offsets of all reported root sectors.
+     */
+    private final Set<Long> found = new HashSet<>();
+
+    /**
+     * Buffer for probed sectors.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    /**
+     * Size of the image.
+     */
+    private long size;
+
+    /**
+     * Master root sector, if it has any partition info with a known type.
+     */
+    private RootSector master;
+
+    /**
+     * Time limit in milliseconds. 0 for no limit.
+     */
+    private long timeLimit;
+
+    /**
+     * End of the time limit as {@link System#nanoTime()}.
+     */
+    private long deadline;
+
+    /**
+     * Constructor.
+     *
+     * @param image Hard disk image.
+     * @param scanner Scanner for the linear scan.
+     */
+    public PriorityScan(ImageReader image, ImageScanner scanner) {
+        this.image = image;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Search the image for root sectors.
+     * <p>
+     * Does NOT evaluate partition information to follow XGM partitions for the found root sectors,
+     * they are reported exactly as by {@link ImageScanner#scan(Consumer)}.
+     *
+     * @param consumer Consumer for all found root sectors. Gets called from the calling thread only.
+     * @param timeLimit Time limit in milliseconds. 0 for no limit.
+     * @return Has the whole image been searched within the time limit?.
+     */
+    public boolean scan(Consumer<RootSector> consumer, long timeLimit) throws IOException {
+        this.timeLimit = timeLimit;
+        this.deadline = System.nanoTime() + timeLimit * 1000000;
+        this.size = image.size();
+        if (size < 512) {
+            return true;
+        }
+
+        // Master root sector, its backups and the last sector.
+        reference(0, 0);
+        reference(512, 512);
+        reference(size - 512, size - 512);
+        if (!probeReferences(consumer)) {
+            return false;
+        }
+
+        if (master != null && master.getHeads() > 0 && master.getSectors() > 0) {
+            long track = master.getSectors() * 512L;
+            long cylinder = master.getHeads() * track;
+            for (int c = 1; c <= MAX_CYLINDERS && c * cylinder < size; c++) {
+                if (!probe(c * cylinder, c * cylinder, consumer) || !probeReferences(consumer)) {
+                    return false;
+                }
+            }
+            for (int h = 1; h < master.getHeads() && h * track < size; h++) {
+                if (!probe(h * track, h * track, consumer) || !probeReferences(consumer)) {
+                    return false;
+                }
+            }
+        }
+
+        // Linear scan of the whole image.
+        scanner.scan(0, rootSector -> {
+            if (found.add(rootSector.getOffset())) {
+                consumer.accept(rootSector);
+            }
+        }, null, position -> {
+            if (isExpired()) {
+                scanner.stop();
+            }
+        });
+        return !scanner.isStopped();
+    }
+
+    /**
+     * Probe all pending references.
+     *
+     * @param consumer Consumer for found root sectors.
+     * @return False, if the time limit has been exceeded.
+     */
+    private boolean probeReferences(Consumer<RootSector> consumer) throws IOException {
+        while (!references.isEmpty()) {
+            long[] reference = references.remove();
+            if (!probe(reference[0], reference[1], consumer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a location to probe.
+     *
+     * @param offset Absolute offset of the location.
+     * @param xgmOffset Absolute offset of the (first) xgm root sector, to follow xgm partitions from there.
+     */
+    private void reference(long offset, long xgmOffset) {
+        if (offset >= 0 && offset + 512 <= size && offset % 512 == 0 && referenced.add(offset)) {
+            references.add(new long[]{offset, xgmOffset});
+        }
+    }
+
+    /**
+     * Probe a single sector. Reports it, if it is a root sector and adds the locations referenced by it.
+     *
+     * @param offset Absolute offset of the sector.
+     * @param xgmOffset Absolute offset of the (first) xgm root sector.
+     * @param consumer Consumer for found root sectors.
+     * @return False, if the time limit has been exceeded.
+     */
+    private boolean probe(long offset, long xgmOffset, Consumer<RootSector> consumer) throws IOException {
+        if (isExpired()) {
+            return false;
+        }
+
+        ByteBuffer sector = image.read(offset, 512, image.isMapped() ? null : buffer);
+        if (sector.limit() < 512 || !RootSector.hasKnownPartitionType(sector, 0)) {
+            return true;
+        }
+
+        if (RootSector.isCandidate(sector, 0) && found.add(offset)) {
+            consumer.accept(new RootSectorView().wrap(offset, offset, sector, 0).toRootSector());
+        }
+
+        RootSector rootSector = RootSector.parse(xgmOffset, offset, sector);
+        if (offset == 0) {
+            master = rootSector;
+            if (rootSector.getSize() > 0 && rootSector.getSize() <= size) {
+                // Last backup root sector.
+                reference(rootSector.getSize() - 512, rootSector.getSize() - 512);
+            }
+        }
+        for (Partition partition : rootSector.getAllPartitions()) {
+            if (partition.isXGM()) {
+                // The first xgm root sector is referenced by the master root sector.
+                reference(partition.getAbsoluteStart(), offset == 0 ? partition.getAbsoluteStart() : xgmOffset);
+            } else if (partition.isGEM() || partition.isBGM()) {
+                // The next xgm root sector often follows the partition.
+                reference(partition.getAbsoluteEnd(), partition.getAbsoluteEnd());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Has the time limit been exceeded?.
+     */
+    private boolean isExpired() {
+        return timeLimit > 0 && System.nanoTime() - deadline >= 0;
+    }
+}
@@ -1,5 +1,7 @@
 package de.heiden.ataripart.image;
 
+import de.heiden.ataripart.jfr.RootSectorParseEvent;
+
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -206,6 +208,53 @@ public class RootSector {
     // Parsing
     //
 
+    /**
+     * Check, if a sector may be a root sector with at least one valid and active partition, without parsing it.
+     * Equivalent to {@code parse(...).hasValidPartitions()}, but does not allocate anything.
+     *
+     * @param disk Hard disk image part, big endian
+     * @param index Index of the sector in hard disk image part
+     * @see #hasValidPartitions()
+     */
+    public static boolean isCandidate(ByteBuffer disk, int index) {
+        for (int i = 0; i < 4; i++) {
+            if (Partition.isCandidate(disk, index + 0x1C6 + i * 12)) {
+                return true;
+            }
+        }
+
+        for (int i = 0; i < 8; i++) {
+            if (Partition.isCandidate(disk, index + 0x156 + i * 12)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check, if a sector has at least one partition info with a known type, regardless of its flags.
+     * Used to count sectors, which look like root sectors, but have been rejected by {@link #isCandidate(ByteBuffer, int)}.
+     *
+     * @param disk Hard disk image part, big endian
+     * @param index Index of the sector in hard disk image part
+     */
+    static boolean hasKnownPartitionType(ByteBuffer disk, int index) {
+        for (int i = 0; i < 4; i++) {
+            if (Partition.hasKnownType(disk, index + 0x1C6 + i * 12)) {
+                return true;
+            }
+        }
+
+        for (int i = 0; i < 8; i++) {
+            if (Partition.hasKnownType(disk, index + 0x156 + i * 12)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Parse sector as root sector.
      *
@@ -214,6 +263,7 @@ public class RootSector {
      * @param disk Hard disk image part. The buffer position has to be set to the start of the root sector.
      */
     public static RootSector parse(long xgmOffset, long offset, ByteBuffer disk) {
+        RootSectorParseEvent event = RootSectorParseEvent.start();
         ByteBuffer rootSector = disk.slice();
 
         int cylinders = IntUtils.getInt16(rootSector, 0x1B6);
@@ -232,6 +282,7 @@ public class RootSector {
             result.add(parse(xgmOffset, offset, rootSector, 0x156 + i * 12, i + 4));
         }
 
+        event.record(offset, result.getPartitions().size());
         return result;
     }
 
@@ -0,0 +1,151 @@
+package de.heiden.ataripart.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view of a root sector.
+ * <p>
+ * Reads all fields lazily from the underlying hard disk image part.
+ * Views are reused, so they are only valid until they get wrapped around another sector.
+ * Use {@link #toRootSector()} to keep a root sector.
+ */
+public class RootSectorView {
+    /**
+     * Number of partition infos in a root sector.
+     */
+    public static final int PARTITIONS = 12;
+
+    /**
+     * Hard disk image part, big endian.
+     */
+    private ByteBuffer disk;
+
+    /**
+     * Index of the root sector in hard disk image part.
+     */
+    private int index;
+
+    /**
+     * Absolute offset of the (first) xgm root sector.
+     */
+    private long xgmOffset;
+
+    /**
+     * Absolute offset in bytes of root sector in disk.
+     */
+    private long offset;
+
+    /**
+     * Reused view of the partition infos.
+     */
+    private final PartitionView partition = new PartitionView();
+
+    /**
+     * Wrap this view around a sector.
+     *
+     * @param xgmOffset Absolute offset of the (first) xgm root sector
+     * @param offset Absolute offset in bytes of sector
+     * @param disk Hard disk image part, big endian
+     * @param index Index of the sector in hard disk image part
+     * @return this
+     */
+    public RootSectorView wrap(long xgmOffset, long offset, ByteBuffer disk, int index) {
+        this.xgmOffset = xgmOffset;
+        this.offset = offset;
+        this.disk = disk;
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Cylinders.
+     */
+    public int getCylinders() {
+        return IntUtils.getInt16(disk, index + 0x1B6);
+    }
+
+    /**
+     * Heads.
+     */
+    public int getHeads() {
+        return IntUtils.getInt8(disk, index + 0x1B8);
+    }
+
+    /**
+     * Sectors.
+     */
+    public int getSectors() {
+        return IntUtils.getInt8(disk, index + 0x1C1);
+    }
+
+    /**
+     * Absolute offset in bytes of root sector in disk.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Is this root sector an xgm root sector?.
+     *
+     * @see RootSector#isXGM()
+     */
+    public boolean isXGM() {
+        return offset > 0;
+    }
+
+    /**
+     * Size of disk in bytes.
+     */
+    public long getSize() {
+        return IntUtils.getInt32(disk, index + 0x1C2) * 512;
+    }
+
+    /**
+     * Absolute offset in bytes where the disk ends.
+     */
+    public long getEnd() {
+        return offset + getSize();
+    }
+
+    /**
+     * Checksum.
+     */
+    public int getChecksum() {
+        return IntUtils.checksumInt16(disk, index, 512);
+    }
+
+    /**
+     * Partition info.
+     * The returned view is reused by all calls of this method.
+     *
+     * @param number Number of partition, 0 to {@value #PARTITIONS} - 1.
+     */
+    public PartitionView getPartition(int number) {
+        int pos = number < 4 ? 0x1C6 + number * 12 : 0x156 + (number - 4) * 12;
+        return partition.wrap(number, xgmOffset, offset, disk, index + pos);
+    }
+
+    /**
+     * Check, if this root sectors contains at least one valid active partition.
+     *
+     * @see RootSector#hasValidPartitions()
+     */
+    public boolean hasValidPartitions() {
+        return RootSector.isCandidate(disk, index);
+    }
+
+    /**
+     * Convert this view into an owned root sector.
+     */
+    public RootSector toRootSector() {
+        ByteBuffer rootSector = disk.duplicate();
+        rootSector.position(index);
+        return RootSector.parse(xgmOffset, offset, rootSector);
+    }
+
+    @Override
+    public String toString() {
+        return toRootSector().toString();
+    }
+}
@@ -0,0 +1,271 @@
+package de.heiden.ataripart.image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Persistent cache of the results of scanning a hard disk image for root sectors.
+ * <p>
+ * The cache is stored in a sidecar file next to the image, e.g. "disk.img.scan".
+ * It contains the offsets of all found root sectors per region, a chunk of the {@link ImageScanner}.
+ * <p>
+ * If size, modification time and fingerprint of the image and the region size are unchanged,
+ * the found root sectors are just read again.
+ * The fingerprint is a CRC32 of {@value #SAMPLES} samples spread over the whole image,
+ * to detect changes which preserved the modification time.
+ * Otherwise the whole image gets scanned again. Detecting changed regions would need to read all of them,
+ * which costs as much I/O as a scan.
+ * <p>
+ * Thread safety: {@link #update(int, long[])} may be called concurrently for different regions.
+ */
+public class ScanCache {
+    /**
+     * Magic number of cache files: "ATARISCN".
+     */
+    private static final long MAGIC = 0x415441524953434EL;
+
+    /**
+     * Version of cache file format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Number of samples of the fingerprint.
+     */
+    private static final int SAMPLES = 64;
+
+    /**
+     * Size of each sample of the fingerprint.
+     */
+    private static final int SAMPLE_SIZE = 4096;
+
+    /**
+     * Cache file.
+     */
+    private final Path file;
+
+    /**
+     * Size of the image.
+     */
+    private final long size;
+
+    /**
+     * Modification time of the image.
+     */
+    private final long modified;
+
+    /**
+     * Fingerprint of the image.
+     */
+    private final long fingerprint;
+
+    /**
+     * Size of the regions.
+     */
+    private final int regionSize;
+
+    /**
+     * Are the cached results still valid for the whole image?.
+     */
+    private boolean unchanged;
+
+    /**
+     * Cached offsets of found root sectors of each region.
+     */
+    private long[][] cachedHits = new long[0][];
+
+    /**
+     * Offsets of found root sectors of each region of the current scan. Null for not yet scanned regions.
+     */
+    private final long[][] hits;
+
+    /**
+     * Constructor.
+     *
+     * @param file Cache file.
+     * @param size Size of the image.
+     * @param modified Modification time of the image.
+     * @param fingerprint Fingerprint of the image.
+     * @param regionSize Size of the regions.
+     */
+    private ScanCache(Path file, long size, long modified, long fingerprint, int regionSize) {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        this.fingerprint = fingerprint;
+        this.regionSize = regionSize;
+        int regions = (int) ((size + regionSize - 1) / regionSize);
+        this.hits = new long[regions][];
+    }
+
+    /**
+     * Open the scan cache of an image. Loads the cache file, if it exists and matches the region size.
+     *
+     * @param image Hard disk image.
+     * @param regionSize Size of the regions.
+     */
+    public static ScanCache open(ImageReader image, int regionSize) throws IOException {
+        Path imageFile = image.getFile();
+        ScanCache result = new ScanCache(
+                cacheFile(imageFile),
+                image.size(),
+                Files.getLastModifiedTime(imageFile).toMillis(),
+                fingerprint(image),
+                regionSize);
+        if (Files.isRegularFile(result.file)) {
+            result.load();
+        }
+        return result;
+    }
+
+    /**
+     * Sidecar cache file of an image.
+     *
+     * @param file Image file.
+     */
+    public static Path cacheFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".scan");
+    }
+
+    /**
+     * Are the cached results still valid for the whole image?.
+     * If so, the image does not need to be scanned at all.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Offsets of all cached root sectors in ascending order.
+     */
+    public List<Long> getHits() {
+        List<Long> result = new ArrayList<>();
+        for (long[] regionHits : cachedHits) {
+            for (long hit : regionHits) {
+                result.add(hit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record the result of scanning a region.
+     *
+     * @param region Index of the region.
+     * @param hits Offsets of the root sectors in the region.
+     */
+    public void update(int region, long[] hits) {
+        this.hits[region] = hits;
+    }
+
+    /**
+     * Fingerprint of an image: CRC32 of its size and of samples spread over the whole image.
+     *
+     * @param image Hard disk image.
+     */
+    private static long fingerprint(ImageReader image) throws IOException {
+        long size = image.size();
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+        buffer.putLong(0, size);
+        crc.update(buffer.array(), 0, 8);
+        long last = Math.max(0, size - SAMPLE_SIZE);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Includes the start and the end of the image.
+            ByteBuffer sample = image.read(last * i / (SAMPLES - 1), SAMPLE_SIZE, image.isMapped() ? null : buffer);
+            crc.update(sample);
+        }
+        return crc.getValue();
+    }
+
+    //
+    // Loading and saving
+    //
+
+    /**
+     * Load the cached results. Ignores the cache file, if it is invalid, outdated or has a different region size.
+     */
+    private void load() throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            if (in.readLong() != MAGIC ||
+                    in.readInt() != VERSION ||
+                    in.readInt() != regionSize) {
+                return;
+            }
+            long cachedSize = in.readLong();
+            long cachedModified = in.readLong();
+            long cachedFingerprint = in.readLong();
+            int regions = in.readInt();
+            if (regions != (int) ((cachedSize + regionSize - 1) / regionSize)) {
+                return;
+            }
+
+            long[][] hits = new long[regions][];
+            for (int region = 0; region < regions; region++) {
+                hits[region] = new long[in.readInt()];
+                for (int i = 0; i < hits[region].length; i++) {
+                    hits[region][i] = in.readLong();
+                }
+            }
+
+            this.unchanged = cachedSize == size && cachedModified == modified && cachedFingerprint == fingerprint;
+            if (unchanged) {
+                this.cachedHits = hits;
+            }
+        } catch (EOFException e) {
+            // Truncated cache file.
+        }
+    }
+
+    /**
+     * Store the results of the current scan. All regions need to have been scanned.
+     */
+    public void save() throws IOException {
+        // A unique temporary file, so concurrent scans of the same image do not interfere.
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(regionSize);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(fingerprint);
+            out.writeInt(hits.length);
+            for (int region = 0; region < hits.length; region++) {
+                if (hits[region] == null) {
+                    throw new IllegalStateException("Region " + region + " has not been scanned.");
+                }
+                out.writeInt(hits[region].length);
+                for (long hit : hits[region]) {
+                    out.writeLong(hit);
+                }
+            }
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, file, ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+}
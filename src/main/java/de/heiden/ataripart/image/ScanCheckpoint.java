@@ -0,0 +1,257 @@
+package de.heiden.ataripart.image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Checkpoint of a scan of a hard disk image for root sectors, to resume an interrupted scan.
+ * <p>
+ * The checkpoint is stored in a sidecar file next to the image, e.g. "disk.img.checkpoint".
+ * It contains the position, up to which the image has been scanned, and the offsets of the root sectors found so far.
+ * It gets written every {@value #INTERVAL} seconds during the scan and is valid only as long as
+ * size and modification time of the image are unchanged.
+ * The scan may be resumed with a different chunk size, it then resumes at the start of the chunk containing the position.
+ * <p>
+ * Not thread safe, to be used from the thread consuming the scan results only.
+ */
+public class ScanCheckpoint {
+    /**
+     * Magic number of checkpoint files: "ATARICHK".
+     */
+    private static final long MAGIC = 0x415441524943484BL;
+
+    /**
+     * Version of checkpoint file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Seconds between checkpoints.
+     */
+    public static final int INTERVAL = 10;
+
+    /**
+     * Checkpoint file.
+     */
+    private final Path file;
+
+    /**
+     * Size of the image.
+     */
+    private final long size;
+
+    /**
+     * Modification time of the image.
+     */
+    private final long modified;
+
+    /**
+     * Size of the chunks of the scan.
+     */
+    private final int chunkSize;
+
+    /**
+     * Position to resume the scan at.
+     */
+    private long start;
+
+    /**
+     * Offsets of all root sectors found before the position to resume at.
+     */
+    private final List<Long> resumedHits = new ArrayList<>();
+
+    /**
+     * Position up to which the image has been scanned.
+     */
+    private long position;
+
+    /**
+     * Offsets of all root sectors found so far.
+     */
+    private final List<Long> hits = new ArrayList<>();
+
+    /**
+     * Time of the last checkpoint in nanoseconds.
+     */
+    private long last = System.nanoTime();
+
+    /**
+     * Has writing a checkpoint failed?. If so, no more checkpoints are written.
+     */
+    private boolean failed;
+
+    /**
+     * Constructor.
+     *
+     * @param file Checkpoint file.
+     * @param size Size of the image.
+     * @param modified Modification time of the image.
+     * @param chunkSize Size of the chunks of the scan.
+     */
+    private ScanCheckpoint(Path file, long size, long modified, int chunkSize) {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Open the checkpoint of an image.
+     *
+     * @param image Hard disk image.
+     * @param resume Resume from the existing checkpoint, if it is valid?.
+     *   Otherwise the scan starts at the beginning of the image.
+     * @param chunkSize Size of the chunks of the scan. The scan resumes at a multiple of it.
+     */
+    public static ScanCheckpoint open(ImageReader image, boolean resume, int chunkSize) throws IOException {
+        Path imageFile = image.getFile();
+        ScanCheckpoint result = new ScanCheckpoint(
+                checkpointFile(imageFile),
+                image.size(),
+                Files.getLastModifiedTime(imageFile).toMillis(),
+                chunkSize);
+        if (resume && Files.isRegularFile(result.file)) {
+            result.load();
+        }
+        return result;
+    }
+
+    /**
+     * Sidecar checkpoint file of an image.
+     *
+     * @param file Image file.
+     */
+    public static Path checkpointFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Position to resume the scan at. 0, if there is no valid checkpoint.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Offsets of the root sectors found before the position to resume at, in ascending order.
+     */
+    public List<Long> getHits() {
+        return Collections.unmodifiableList(resumedHits);
+    }
+
+    /**
+     * Record a found root sector.
+     *
+     * @param rootSector Root sector.
+     */
+    public void found(RootSector rootSector) {
+        hits.add(rootSector.getOffset());
+    }
+
+    /**
+     * Record the progress of the scan. Writes a checkpoint, if the last one is older than {@value #INTERVAL} seconds.
+     * If writing fails, e.g. because the directory of the image is read-only, no more checkpoints are written.
+     *
+     * @param position Position up to which all found root sectors have been recorded.
+     */
+    public void scanned(long position) throws IOException {
+        this.position = position;
+        long now = System.nanoTime();
+        if (!failed && now - last >= TimeUnit.SECONDS.toNanos(INTERVAL)) {
+            last = now;
+            try {
+                save();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Write a checkpoint for the current progress of the scan.
+     */
+    public void save() throws IOException {
+        // A unique temporary file, so concurrent scans of the same image do not interfere.
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(chunkSize);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(position);
+            out.writeInt(resumedHits.size() + hits.size());
+            for (long hit : resumedHits) {
+                out.writeLong(hit);
+            }
+            for (long hit : hits) {
+                out.writeLong(hit);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, file, ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Delete the checkpoint after the scan has been completed.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Load the checkpoint. Ignores the checkpoint file, if it is invalid or outdated.
+     */
+    private void load() throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            if (in.readLong() != MAGIC ||
+                    in.readInt() != VERSION ||
+                    in.readInt() <= 0 ||
+                    in.readLong() != size ||
+                    in.readLong() != modified) {
+                return;
+            }
+            long position = in.readLong();
+            int count = in.readInt();
+            List<Long> hits = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hits.add(in.readLong());
+            }
+
+            this.start = position - position % chunkSize;
+            this.position = start;
+            for (long hit : hits) {
+                if (hit < start) {
+                    resumedHits.add(hit);
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated checkpoint file.
+        }
+    }
+}
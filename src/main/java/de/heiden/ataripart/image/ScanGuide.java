@@ -0,0 +1,95 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.fat.FatFileSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Guides a scan for root sectors past the interiors of verified partitions.
+ * <p>
+ * For each found root sector, the boot sectors of its real partitions are read.
+ * If the BIOS parameter block of a partition is plausible, the scan skips the rest of the partition.
+ * Optionally the FAT and the root directory of the partition have to be consistent too.
+ * On healthy disks only the gaps between the partitions get scanned.
+ * Root sectors inside of verified partitions, e.g. of an older layout of the disk, are not found.
+ */
+public class ScanGuide {
+    /**
+     * Hard disk image.
+     */
+    private final ImageReader image;
+
+    /**
+     * Scanner to guide.
+     */
+    private final ImageScanner scanner;
+
+    /**
+     * Check FAT and root directory of partitions before skipping them?.
+     */
+    private final boolean probe;
+
+    /**
+     * Buffer for boot sectors.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    /**
+     * Constructor.
+     *
+     * @param image Hard disk image.
+     * @param scanner Scanner to guide.
+     * @param probe Check FAT and root directory of partitions before skipping them?.
+     */
+    public ScanGuide(ImageReader image, ImageScanner scanner, boolean probe) {
+        this.image = image;
+        this.scanner = scanner;
+        this.probe = probe;
+    }
+
+    /**
+     * Skip the verified partitions of a found root sector.
+     * Has to be called from the calling thread of the scan, e.g. from its consumer.
+     *
+     * @param rootSector Found root sector.
+     */
+    public void found(RootSector rootSector) throws IOException {
+        long size = image.size();
+        for (Partition partition : rootSector.getRealPartitions()) {
+            long start = partition.getAbsoluteStart();
+            long end = partition.getAbsoluteEnd();
+            if (start <= rootSector.getOffset() || end > size) {
+                // Partition overlaps its root sector or exceeds the image: Most likely no real root sector.
+                continue;
+            }
+
+            BootSector bootSector = BootSector.parse(image.read(start, 512, image.isMapped() ? null : buffer));
+            if (!bootSector.isPlausible(partition.getLength())) {
+                continue;
+            }
+            if (probe && !isConsistent(partition, bootSector)) {
+                continue;
+            }
+
+            scanner.skip(start + 512, end);
+        }
+    }
+
+    /**
+     * Are FAT and root directory of a partition consistent?.
+     *
+     * @param partition Partition. Gets not modified.
+     * @param bootSector Boot sector of the partition.
+     */
+    private boolean isConsistent(Partition partition, BootSector bootSector) throws IOException {
+        // The scan results do not include boot sectors.
+        BootSector original = partition.getBootSector();
+        partition.setBootSector(bootSector);
+        try {
+            return new FatFileSystem(image, partition).isConsistent();
+        } finally {
+            partition.setBootSector(original);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package de.heiden.ataripart.image.ahdi;
+
+import de.heiden.ataripart.image.IntUtils;
+import de.heiden.ataripart.image.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * FAT16 boot sector of an Atari partition.
+ * <p>
+ * Like TOS, uses logical sectors larger than 512 bytes,
+ * so that the number of sectors always fits into 16 bits.
+ */
+public class AhdiBootSector {
+    /**
+     * Maximum number of logical sectors.
+     */
+    private static final int MAX_SECTORS = 0xFFFF;
+
+    /**
+     * Maximum size of logical sectors.
+     */
+    public static final int MAX_BYTES_PER_SECTOR = 16384;
+
+    /**
+     * Maximum size of a partition in bytes.
+     */
+    public static final long MAX_SIZE = (long) MAX_SECTORS * MAX_BYTES_PER_SECTOR;
+
+    /**
+     * Bytes per logical sector.
+     */
+    private final int bytesPerSector;
+
+    /**
+     * Number of logical sectors.
+     */
+    private final int sectors;
+
+    /**
+     * Sectors per FAT.
+     */
+    private final int sectorsPerFAT;
+
+    /**
+     * Maximum directory entries.
+     */
+    private final int maxDirectoryEntries;
+
+    /**
+     * Partition label.
+     */
+    private final String label;
+
+    /**
+     * Serial number (UID) of partition.
+     */
+    private final long serial;
+
+    /**
+     * Constructor.
+     *
+     * @param size Size of partition in bytes.
+     * @param label Partition label, at most 11 characters.
+     * @param serial Serial number (UID) of partition.
+     */
+    public AhdiBootSector(long size, String label, long serial) {
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Partitions are limited to " + MAX_SIZE + " bytes.");
+        }
+
+        int bytesPerSector = 512;
+        while (size / bytesPerSector > MAX_SECTORS) {
+            bytesPerSector *= 2;
+        }
+        this.bytesPerSector = bytesPerSector;
+        this.sectors = (int) (size / bytesPerSector);
+        // Root directory fills at least one whole sector.
+        this.maxDirectoryEntries = Math.max(256, bytesPerSector / 32);
+        // Estimate the FAT size from the number of sectors. Slightly too large, because the FAT does not cover itself.
+        this.sectorsPerFAT = ((sectors / getSectorsPerCluster() + 2) * 2 + bytesPerSector - 1) / bytesPerSector;
+        this.label = label;
+        this.serial = serial;
+    }
+
+    /**
+     * Bytes per logical sector.
+     */
+    public int getBytesPerSector() {
+        return bytesPerSector;
+    }
+
+    /**
+     * Sectors per cluster. Always 2.
+     */
+    public int getSectorsPerCluster() {
+        return 2;
+    }
+
+    /**
+     * Reserved sectors. Always 1, the boot sector.
+     */
+    public int getReservedSectors() {
+        return 1;
+    }
+
+    /**
+     * Number of FATs. Always 2.
+     */
+    public int getNumFATs() {
+        return 2;
+    }
+
+    /**
+     * Maximum directory entries.
+     */
+    public int getMaxDirectoryEntries() {
+        return maxDirectoryEntries;
+    }
+
+    /**
+     * Number of logical sectors.
+     */
+    public int getSectors() {
+        return sectors;
+    }
+
+    /**
+     * Sectors per FAT.
+     */
+    public int getSectorsPerFAT() {
+        return sectorsPerFAT;
+    }
+
+    /**
+     * Bytes per cluster.
+     */
+    public int getClusterSize() {
+        return getSectorsPerCluster() * bytesPerSector;
+    }
+
+    /**
+     * Offset in bytes of the root directory relative to the start of the partition.
+     */
+    public long getRootDirectoryOffset() {
+        return (long) (getReservedSectors() + getNumFATs() * sectorsPerFAT) * bytesPerSector;
+    }
+
+    /**
+     * Offset in bytes of the data area (cluster 2) relative to the start of the partition.
+     */
+    public long getDataOffset() {
+        return getRootDirectoryOffset() + maxDirectoryEntries * 32;
+    }
+
+    /**
+     * Number of data clusters.
+     */
+    public int getClusters() {
+        return (int) ((sectors * (long) bytesPerSector - getDataOffset()) / getClusterSize());
+    }
+
+    /**
+     * Create boot sector.
+     */
+    public ByteBuffer createBootSector() {
+        // All boot sector values are little endian, due to MS DOS compatibility.
+        ByteBuffer bootSector = ByteBuffer.allocate(512);
+        bootSector.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Branch, unused.
+        IntUtils.setInt16(bootSector, 0x00, 0x0000);
+        // OEM name.
+        StringUtils.setString(bootSector, 0x03, "ATARIPRT");
+        // BPB.
+        IntUtils.setInt16(bootSector, 0x0B, bytesPerSector);
+        IntUtils.setInt8(bootSector, 0x0D, getSectorsPerCluster());
+        IntUtils.setInt16(bootSector, 0x0E, getReservedSectors());
+        IntUtils.setInt8(bootSector, 0x10, getNumFATs());
+        IntUtils.setInt16(bootSector, 0x11, maxDirectoryEntries);
+        IntUtils.setInt16(bootSector, 0x13, sectors);
+        // Media descriptor: hard disk.
+        IntUtils.setInt8(bootSector, 0x15, 0xF8);
+        IntUtils.setInt16(bootSector, 0x16, sectorsPerFAT);
+        // Extended BPB.
+        IntUtils.setInt8(bootSector, 0x26, 0x29);
+        IntUtils.setInt32(bootSector, 0x27, serial);
+        StringUtils.setString(bootSector, 0x2B, String.format("%-11.11s", label));
+        StringUtils.setString(bootSector, 0x36, "FAT16   ");
+
+        bootSector.position(0);
+        return bootSector;
+    }
+}
@@ -0,0 +1,97 @@
+package de.heiden.ataripart.image.ahdi;
+
+import de.heiden.ataripart.image.IntUtils;
+import de.heiden.ataripart.image.StringUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AHDI partition.
+ */
+public class AhdiPartition {
+    /**
+     * Active?.
+     */
+    private final boolean active;
+
+    /**
+     * Type, e.g. "GEM", "BGM" or "XGM".
+     */
+    private final String type;
+
+    /**
+     * Start sector relative to the root sector, for xgm partitions relative to the first xgm root sector.
+     */
+    private final long startSector;
+
+    /**
+     * Number of sectors.
+     */
+    private final long numSectors;
+
+    /**
+     * Constructor.
+     *
+     * @param active Active?.
+     * @param type Type, e.g. "GEM", "BGM" or "XGM".
+     * @param startSector Start sector relative to the root sector, for xgm partitions relative to the first xgm root sector.
+     * @param numSectors Number of sectors.
+     */
+    public AhdiPartition(boolean active, String type, long startSector, long numSectors) {
+        if (type.length() != 3) {
+            throw new IllegalArgumentException("Partition type has to have 3 characters.");
+        }
+        this.active = active;
+        this.type = type;
+        this.startSector = startSector;
+        this.numSectors = numSectors;
+    }
+
+    /**
+     * Active?.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Type, e.g. "GEM", "BGM" or "XGM".
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Start sector relative to the root sector, for xgm partitions relative to the first xgm root sector.
+     */
+    public long getStartSector() {
+        return startSector;
+    }
+
+    /**
+     * Number of sectors.
+     */
+    public long getNumSectors() {
+        return numSectors;
+    }
+
+    /**
+     * Create partition entry.
+     */
+    public ByteBuffer createPartitionEntry() {
+        // All root sector values are big endian.
+        ByteBuffer partitionEntry = ByteBuffer.allocate(12);
+
+        // Flags.
+        IntUtils.setInt8(partitionEntry, 0x00, active ? 0x01 : 0x00);
+        // Type.
+        StringUtils.setString(partitionEntry, 0x01, type);
+        // Start sector.
+        IntUtils.setInt32(partitionEntry, 0x04, startSector);
+        // Number of sectors.
+        IntUtils.setInt32(partitionEntry, 0x08, numSectors);
+
+        partitionEntry.position(0);
+        return partitionEntry;
+    }
+}
@@ -0,0 +1,72 @@
+package de.heiden.ataripart.image.ahdi;
+
+import de.heiden.ataripart.image.IntUtils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * AHDI root sector.
+ */
+public class AhdiRootSector {
+    /**
+     * Size of disk in sectors. 0 for xgm root sectors.
+     */
+    private final long sectors;
+
+    /**
+     * Partitions.
+     */
+    private final List<AhdiPartition> partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param sectors Size of disk in sectors. 0 for xgm root sectors.
+     * @param partitions Partitions.
+     */
+    public AhdiRootSector(long sectors, AhdiPartition... partitions) {
+        if (partitions.length > 4) {
+            throw new IllegalArgumentException("Root sector just supports 4 partitions.");
+        }
+        this.sectors = sectors;
+        this.partitions = unmodifiableList(asList(partitions));
+    }
+
+    /**
+     * Size of disk in sectors. 0 for xgm root sectors.
+     */
+    public long getSectors() {
+        return sectors;
+    }
+
+    /**
+     * Partitions.
+     */
+    public List<AhdiPartition> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Create root sector.
+     */
+    public ByteBuffer createRootSector() {
+        // All root sector values are big endian.
+        ByteBuffer rootSector = ByteBuffer.allocate(512);
+
+        IntUtils.setInt32(rootSector, 0x01C2, sectors);
+        int index = 0x01C6;
+        for (AhdiPartition partition : partitions) {
+            ByteBuffer partitionEntry = partition.createPartitionEntry();
+            rootSector.position(index);
+            rootSector.put(partitionEntry);
+            index += 12;
+        }
+
+        rootSector.position(0);
+        return rootSector;
+    }
+}
@@ -0,0 +1,375 @@
+package de.heiden.ataripart.image.ahdi;
+
+import de.heiden.ataripart.image.IntUtils;
+import de.heiden.ataripart.image.StringUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Generator for synthetic Atari hard disk images, e.g. for benchmarks and load tests.
+ * <p>
+ * Creates a master root sector with GEM/BGM partitions and, for more than 4 partitions,
+ * a chain of xgm root sectors with one partition each.
+ * Each partition gets a FAT16 file system with some files in the root directory and in a sub directory.
+ * Free clusters and unpartitioned space are filled with random noise or left as holes.
+ * <p>
+ * The image is written sequentially in blocks, so images larger than the available memory are cheap to produce.
+ * All contents are derived from the seed, so the same parameters always produce the same image.
+ */
+public class ImageGenerator {
+    /**
+     * Minimum size of partitions.
+     */
+    public static final long MIN_PARTITION_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Maximum size of generated files.
+     */
+    private static final int MAX_FILE_SIZE = 256 * 1024;
+
+    /**
+     * Size of noise blocks.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Size of image in bytes.
+     */
+    private final long size;
+
+    /**
+     * Number of partitions.
+     */
+    private final int partitions;
+
+    /**
+     * Seed for all random contents.
+     */
+    private final long seed;
+
+    /**
+     * Fraction of free blocks to fill with random noise.
+     */
+    private double noise = 0.1;
+
+    /**
+     * Number of files per directory.
+     */
+    private int files = 8;
+
+    /**
+     * Create backup root sectors?.
+     */
+    private boolean backups = true;
+
+    /**
+     * Random generator for all contents.
+     */
+    private Random random;
+
+    /**
+     * Channel to write the image to.
+     */
+    private FileChannel channel;
+
+    /**
+     * Current write position.
+     */
+    private long position;
+
+    /**
+     * Buffer for noise.
+     */
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param size Size of image in bytes. Gets rounded down to whole sectors.
+     * @param partitions Number of partitions.
+     * @param seed Seed for all random contents.
+     */
+    public ImageGenerator(long size, int partitions, long seed) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("At least one partition is needed.");
+        }
+        this.size = size / 512 * 512;
+        this.partitions = partitions;
+        this.seed = seed;
+    }
+
+    /**
+     * Set fraction of free blocks to fill with random noise.
+     *
+     * @param noise 0.0: no noise, 1.0: all free blocks.
+     */
+    public void setNoise(double noise) {
+        this.noise = noise;
+    }
+
+    /**
+     * Set number of files per directory.
+     *
+     * @param files Number of files per directory.
+     */
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    /**
+     * Create backup root sectors after the master root sector and at the end of the image?.
+     *
+     * @param backups Create backup root sectors?.
+     */
+    public void setBackups(boolean backups) {
+        this.backups = backups;
+    }
+
+    /**
+     * Generate image.
+     *
+     * @param file Image file. Must not exist.
+     */
+    public void generate(Path file) throws IOException {
+        random = new Random(seed);
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, WRITE)) {
+            this.channel = channel;
+            this.position = 0;
+
+            long sectors = size / 512;
+            long first = backups ? 2 : 1;
+            int primary = partitions > 4 ? 3 : partitions;
+            int extended = partitions - primary;
+            // Align partitions to 16 KB, the maximum logical sector size.
+            long length = Math.min(
+                    (sectors - first - (backups ? 1 : 0) - extended) / partitions,
+                    AhdiBootSector.MAX_SIZE / 512) / 32 * 32;
+            if (length * 512 < MIN_PARTITION_SIZE) {
+                throw new IllegalArgumentException("Image is too small for " + partitions + " partitions.");
+            }
+
+            // Master root sector.
+            AhdiPartition[] entries = new AhdiPartition[extended > 0 ? primary + 1 : primary];
+            for (int i = 0; i < primary; i++) {
+                entries[i] = new AhdiPartition(true, type(length), first + i * length, length);
+            }
+            long xgmStart = first + primary * length;
+            if (extended > 0) {
+                entries[primary] = new AhdiPartition(true, "XGM", xgmStart, extended * (length + 1));
+            }
+            ByteBuffer rootSector = new AhdiRootSector(sectors, entries).createRootSector();
+            write(rootSector);
+            if (backups) {
+                write(rootSector);
+            }
+            for (int i = 0; i < primary; i++) {
+                writePartition(i, length);
+            }
+
+            // Chain of xgm root sectors. Xgm partitions are relative to the first xgm root sector.
+            for (int i = 0; i < extended; i++) {
+                AhdiPartition partition = new AhdiPartition(true, type(length), 1, length);
+                AhdiRootSector xgmRootSector = i + 1 < extended ?
+                        new AhdiRootSector(0, partition, new AhdiPartition(true, "XGM", (i + 1) * (length + 1), length + 1)) :
+                        new AhdiRootSector(0, partition);
+                write(xgmRootSector.createRootSector());
+                writePartition(primary + i, length);
+            }
+
+            // Unpartitioned space.
+            fill(backups ? size - 512 : size);
+            if (backups) {
+                write(rootSector);
+            } else if (channel.size() < size) {
+                // Extend image to its full size.
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Partition type depending on the partition size.
+     *
+     * @param sectors Size of partition in sectors.
+     */
+    private static String type(long sectors) {
+        return sectors < 16 * 1024 * 1024 / 512 ? "GEM" : "BGM";
+    }
+
+    /**
+     * Write partition with FAT16 file system.
+     *
+     * @param number Number of partition. 0 is drive C.
+     * @param sectors Size of partition in sectors.
+     */
+    private void writePartition(int number, long sectors) throws IOException {
+        long start = position;
+        AhdiBootSector bootSector = new AhdiBootSector(sectors * 512, "DRIVE_" + (char) ('C' + number), random.nextInt() & 0x7FFFFFFF);
+        int clusterSize = bootSector.getClusterSize();
+
+        ByteBuffer fat = ByteBuffer.allocate(bootSector.getSectorsPerFAT() * bootSector.getBytesPerSector());
+        fat.order(ByteOrder.LITTLE_ENDIAN);
+        // Media descriptor and end of chain marker.
+        IntUtils.setInt16(fat, 0, 0xFFF8);
+        IntUtils.setInt16(fat, 2, 0xFFFF);
+
+        ByteBuffer rootDirectory = ByteBuffer.allocate(bootSector.getMaxDirectoryEntries() * 32);
+        rootDirectory.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Contents of all allocated clusters, starting at cluster 2.
+        List<ByteBuffer> clusters = new ArrayList<>();
+        int maxClusters = bootSector.getClusters();
+
+        // Sub directory with one cluster.
+        ByteBuffer directory = ByteBuffer.allocate(clusterSize);
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+        int directoryCluster = allocate(fat, clusters, directory, clusterSize, maxClusters);
+        if (directoryCluster > 0) {
+            directoryEntry(rootDirectory, 0, "FOLDER", "", 0x10, directoryCluster, 0);
+            directoryEntry(directory, 0, ".", "", 0x10, directoryCluster, 0);
+            directoryEntry(directory, 1, "..", "", 0x10, 0, 0);
+            writeFiles(directory, 2, fat, clusters, clusterSize, maxClusters);
+        }
+        writeFiles(rootDirectory, 1, fat, clusters, clusterSize, maxClusters);
+
+        write(bootSector.createBootSector());
+        position = start + bootSector.getReservedSectors() * bootSector.getBytesPerSector();
+        for (int i = 0; i < bootSector.getNumFATs(); i++) {
+            write(fat);
+        }
+        write(rootDirectory);
+        for (ByteBuffer cluster : clusters) {
+            write(cluster);
+        }
+
+        // Free clusters.
+        fill(start + sectors * 512);
+    }
+
+    /**
+     * Create files with random contents in a directory.
+     *
+     * @param directory Directory.
+     * @param first Index of first free directory entry.
+     * @param fat FAT.
+     * @param clusters Contents of all allocated clusters.
+     * @param clusterSize Bytes per cluster.
+     * @param maxClusters Number of data clusters.
+     */
+    private void writeFiles(ByteBuffer directory, int first, ByteBuffer fat, List<ByteBuffer> clusters, int clusterSize, int maxClusters) {
+        int entries = Math.min(first + files, directory.capacity() / 32);
+        for (int i = first; i < entries; i++) {
+            int fileSize = random.nextInt(MAX_FILE_SIZE + 1);
+            ByteBuffer contents = ByteBuffer.allocate((fileSize + clusterSize - 1) / clusterSize * clusterSize);
+            byte[] bytes = new byte[fileSize];
+            random.nextBytes(bytes);
+            contents.put(bytes);
+            contents.clear();
+
+            int cluster = fileSize > 0 ? allocate(fat, clusters, contents, clusterSize, maxClusters) : 0;
+            if (cluster < 0) {
+                // Partition is full.
+                return;
+            }
+            directoryEntry(directory, i, String.format("FILE%04d", i), "BIN", 0x20, cluster, fileSize);
+        }
+    }
+
+    /**
+     * Allocate a contiguous cluster chain.
+     *
+     * @param fat FAT.
+     * @param clusters Contents of all allocated clusters.
+     * @param contents Contents to store. Has to be a multiple of the cluster size.
+     * @param clusterSize Bytes per cluster.
+     * @param maxClusters Number of data clusters.
+     * @return First cluster of chain or -1, if the partition is full.
+     */
+    private int allocate(ByteBuffer fat, List<ByteBuffer> clusters, ByteBuffer contents, int clusterSize, int maxClusters) {
+        int first = clusters.size() + 2;
+        int count = contents.capacity() / clusterSize;
+        if (clusters.size() + count > maxClusters) {
+            return -1;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int cluster = first + i;
+            IntUtils.setInt16(fat, cluster * 2, i + 1 < count ? cluster + 1 : 0xFFFF);
+            contents.limit((i + 1) * clusterSize);
+            contents.position(i * clusterSize);
+            clusters.add(contents.slice());
+        }
+        contents.clear();
+
+        return first;
+    }
+
+    /**
+     * Write directory entry.
+     *
+     * @param directory Directory.
+     * @param index Index of entry.
+     * @param name Name, at most 8 characters.
+     * @param extension Extension, at most 3 characters.
+     * @param attributes Attributes.
+     * @param cluster First cluster.
+     * @param size Size of file in bytes.
+     */
+    private static void directoryEntry(ByteBuffer directory, int index, String name, String extension, int attributes, int cluster, long size) {
+        int entry = index * 32;
+        StringUtils.setString(directory, entry, String.format("%-8.8s%-3.3s", name, extension));
+        IntUtils.setInt8(directory, entry + 0x0B, attributes);
+        // 1992-10-17 12:00:00.
+        IntUtils.setInt16(directory, entry + 0x16, 12 << 11);
+        IntUtils.setInt16(directory, entry + 0x18, (1992 - 1980) << 9 | 10 << 5 | 17);
+        IntUtils.setInt16(directory, entry + 0x1A, cluster);
+        IntUtils.setInt32(directory, entry + 0x1C, size);
+    }
+
+    /**
+     * Write buffer at the current position.
+     *
+     * @param buffer Buffer to write. Its position and limit will not be changed.
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        data.clear();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * Fill free space up to the given position with random noise or holes.
+     *
+     * @param end Absolute position to fill to.
+     */
+    private void fill(long end) throws IOException {
+        while (position < end) {
+            int length = (int) Math.min(BLOCK_SIZE - position % BLOCK_SIZE, end - position);
+            if (random.nextDouble() < noise) {
+                random.nextBytes(block.array());
+                block.clear();
+                block.limit(length);
+                while (block.hasRemaining()) {
+                    position += channel.write(block, position);
+                }
+            } else {
+                // Leave a hole.
+                position += length;
+            }
+        }
+    }
+}
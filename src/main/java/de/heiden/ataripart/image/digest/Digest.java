@@ -0,0 +1,94 @@
+package de.heiden.ataripart.image.digest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Digest of a stream of data, e.g. SHA-256 or CRC32C.
+ * Not thread safe.
+ */
+public abstract class Digest {
+    /**
+     * Name of the algorithm, as used in manifests, e.g. "SHA256".
+     */
+    private final String name;
+
+    /**
+     * Constructor.
+     *
+     * @param name Name of the algorithm, as used in manifests, e.g. "SHA256".
+     */
+    protected Digest(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Name of the algorithm, as used in manifests, e.g. "SHA256".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Add data to the digest.
+     *
+     * @param bytes Data.
+     * @param offset Offset of data.
+     * @param length Length of data.
+     */
+    public abstract void update(byte[] bytes, int offset, int length);
+
+    /**
+     * Finish the digest.
+     *
+     * @return Digest as lower case hex string.
+     */
+    public abstract String finish();
+
+    /**
+     * SHA-256.
+     */
+    public static Digest sha256() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new Digest("SHA256") {
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    digest.update(bytes, offset, length);
+                }
+
+                @Override
+                public String finish() {
+                    StringBuilder result = new StringBuilder(64);
+                    for (byte b : digest.digest()) {
+                        result.append(String.format("%02x", b & 0xFF));
+                    }
+                    return result.toString();
+                }
+            };
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * CRC32C.
+     */
+    public static Digest crc32c() {
+        Checksum checksum = new CRC32C();
+        return new Digest("CRC32C") {
+            @Override
+            public void update(byte[] bytes, int offset, int length) {
+                checksum.update(bytes, offset, length);
+            }
+
+            @Override
+            public String finish() {
+                return String.format("%08x", checksum.getValue());
+            }
+        };
+    }
+}
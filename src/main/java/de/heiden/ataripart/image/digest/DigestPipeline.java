@@ -0,0 +1,265 @@
+package de.heiden.ataripart.image.digest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans out a stream of data to several digests, each running on its own thread.
+ * <p>
+ * The data is copied once into a small pool of blocks. Each block is queued for every digest
+ * and returns to the pool, when all digests are done with it.
+ * So the caller, e.g. the writer of a partition image, is never slowed down by the slowest digest,
+ * unless all blocks are in use.
+ * <p>
+ * Not thread safe: {@link #update(ByteBuffer)} has to be called from a single thread.
+ */
+public class DigestPipeline implements AutoCloseable {
+    /**
+     * Size of blocks.
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Number of blocks.
+     */
+    private static final int BLOCKS = 4;
+
+    /**
+     * Marker for the end of data.
+     */
+    private static final Block END = new Block(ByteBuffer.allocate(0), false);
+
+    /**
+     * Zeros.
+     */
+    private static final byte[] ZEROS = new byte[BLOCK_SIZE];
+
+    /**
+     * Free blocks.
+     */
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BLOCKS);
+
+    /**
+     * Queue of each digest.
+     */
+    private final List<BlockingQueue<Block>> queues = new ArrayList<>();
+
+    /**
+     * Consumer task of each digest.
+     */
+    private final List<Future<String>> consumers = new ArrayList<>();
+
+    /**
+     * Names of all digests.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Current block, not yet queued.
+     */
+    private ByteBuffer current;
+
+    /**
+     * Constructor.
+     *
+     * @param executor Executor to run the digests on. Needs a thread for each digest.
+     * @param digests Digests.
+     */
+    public DigestPipeline(ExecutorService executor, Digest... digests) {
+        for (int i = 0; i < BLOCKS; i++) {
+            free.add(ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        for (Digest digest : digests) {
+            BlockingQueue<Block> queue = new ArrayBlockingQueue<>(BLOCKS + 1);
+            queues.add(queue);
+            names.add(digest.getName());
+            consumers.add(executor.submit(() -> consume(digest, queue)));
+        }
+    }
+
+    /**
+     * Add data to all digests.
+     *
+     * @param data Data. Gets consumed completely.
+     */
+    public void update(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (current == null) {
+                current = take();
+            }
+            int num = Math.min(data.remaining(), current.remaining());
+            ByteBuffer source = data.duplicate();
+            source.limit(source.position() + num);
+            current.put(source);
+            data.position(data.position() + num);
+            if (!current.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Add zeros to all digests.
+     *
+     * @param count Number of zeros.
+     */
+    public void updateZeros(long count) throws IOException {
+        while (count > 0) {
+            int num = (int) Math.min(ZEROS.length, count);
+            update(ByteBuffer.wrap(ZEROS, 0, num));
+            count -= num;
+        }
+    }
+
+    /**
+     * Wait for all digests to finish.
+     *
+     * @return Digests as hex strings by name, in the order of the digests.
+     */
+    public Map<String, String> finish() throws IOException {
+        flush();
+        for (BlockingQueue<Block> queue : queues) {
+            put(queue, END);
+        }
+
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < consumers.size(); i++) {
+            try {
+                result.put(names.get(i), consumers.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Digest has been interrupted.");
+            } catch (ExecutionException e) {
+                throw new IOException("Digest failed.", e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stop all digests, e.g. after a failure.
+     */
+    @Override
+    public void close() {
+        for (Future<String> consumer : consumers) {
+            consumer.cancel(true);
+        }
+    }
+
+    /**
+     * Queue the current block for all digests.
+     */
+    private void flush() throws IOException {
+        if (current == null) {
+            return;
+        }
+        current.flip();
+        Block block = new Block(current, true);
+        block.users.set(queues.size());
+        for (BlockingQueue<Block> queue : queues) {
+            put(queue, block);
+        }
+        if (queues.isEmpty()) {
+            release(block);
+        }
+        current = null;
+    }
+
+    /**
+     * Get a free block.
+     */
+    private ByteBuffer take() throws IOException {
+        try {
+            ByteBuffer result = free.take();
+            result.clear();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Digest has been interrupted.");
+        }
+    }
+
+    /**
+     * Queue a block for a digest.
+     *
+     * @param queue Queue of the digest.
+     * @param block Block.
+     */
+    private static void put(BlockingQueue<Block> queue, Block block) throws IOException {
+        try {
+            queue.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Digest has been interrupted.");
+        }
+    }
+
+    /**
+     * Feed all blocks of a queue to a digest.
+     *
+     * @param digest Digest.
+     * @param queue Queue of the digest.
+     * @return Digest as hex string.
+     */
+    private String consume(Digest digest, BlockingQueue<Block> queue) throws InterruptedException {
+        for (Block block; (block = queue.take()) != END; ) {
+            ByteBuffer data = block.data;
+            digest.update(data.array(), data.arrayOffset(), data.limit());
+            release(block);
+        }
+        return digest.finish();
+    }
+
+    /**
+     * Release a block. Returns it to the pool, if it is not used anymore.
+     *
+     * @param block Block.
+     */
+    private void release(Block block) {
+        if (block.pooled && block.users.decrementAndGet() <= 0) {
+            free.add(block.data);
+        }
+    }
+
+    /**
+     * Block of data, shared by all digests.
+     */
+    private static class Block {
+        /**
+         * Data.
+         */
+        private final ByteBuffer data;
+
+        /**
+         * Does the block belong to the pool?.
+         */
+        private final boolean pooled;
+
+        /**
+         * Number of digests still using this block.
+         */
+        private final AtomicInteger users = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param data Data.
+         * @param pooled Does the block belong to the pool?.
+         */
+        private Block(ByteBuffer data, boolean pooled) {
+            this.data = data;
+            this.pooled = pooled;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package de.heiden.ataripart.image.fat;
+
+import de.heiden.ataripart.image.IntUtils;
+import de.heiden.ataripart.image.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * FAT directory entry.
+ */
+public class DirectoryEntry {
+    /**
+     * Attribute: Volume label.
+     */
+    public static final int VOLUME_LABEL = 0x08;
+
+    /**
+     * Attribute: Directory.
+     */
+    public static final int DIRECTORY = 0x10;
+
+    /**
+     * Attributes of long file name entries.
+     */
+    public static final int LONG_FILE_NAME = 0x0F;
+
+    /**
+     * File name including extension, e.g. "README.TXT".
+     */
+    private final String name;
+
+    /**
+     * Attributes.
+     */
+    private final int attributes;
+
+    /**
+     * Time of last modification.
+     */
+    private final LocalDateTime lastModified;
+
+    /**
+     * First cluster.
+     */
+    private final int cluster;
+
+    /**
+     * Size of file in bytes.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param name File name including extension, e.g. "README.TXT".
+     * @param attributes Attributes.
+     * @param lastModified Time of last modification.
+     * @param cluster First cluster.
+     * @param size Size of file in bytes.
+     */
+    public DirectoryEntry(String name, int attributes, LocalDateTime lastModified, int cluster, long size) {
+        this.name = name;
+        this.attributes = attributes;
+        this.lastModified = lastModified;
+        this.cluster = cluster;
+        this.size = size;
+    }
+
+    /**
+     * File name including extension, e.g. "README.TXT".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Attributes.
+     */
+    public int getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Is this entry a directory?.
+     */
+    public boolean isDirectory() {
+        return (attributes & DIRECTORY) != 0;
+    }
+
+    /**
+     * Time of last modification.
+     */
+    public LocalDateTime getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * First cluster.
+     */
+    public int getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Size of file in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return name + (isDirectory() ? "/" : " (" + size + ")");
+    }
+
+    //
+    // Parsing
+    //
+
+    /**
+     * Parse a directory entry.
+     *
+     * @param directory Directory, little endian.
+     * @param index Index of entry in directory.
+     * @return Parsed entry or null, if the entry is unused, deleted, a long file name, a volume label or "." or "..".
+     */
+    public static DirectoryEntry parse(ByteBuffer directory, int index) {
+        int first = IntUtils.getInt8(directory, index);
+        int attributes = IntUtils.getInt8(directory, index + 0x0B);
+        if (first == 0x00 || first == 0xE5 || first == '.' ||
+                attributes == LONG_FILE_NAME || (attributes & VOLUME_LABEL) != 0) {
+            return null;
+        }
+
+        String name = StringUtils.getString(directory, index, 8).trim();
+        if (first == 0x05) {
+            // 0xE5 as first character is stored as 0x05.
+            name = (char) 0xE5 + name.substring(1);
+        }
+        String extension = StringUtils.getString(directory, index + 8, 3).trim();
+        if (!extension.isEmpty()) {
+            name += "." + extension;
+        }
+        // Never allow to escape the destination directory.
+        name = name.replace('/', '_').replace('\\', '_').replace((char) 0, '_');
+
+        int time = IntUtils.getInt16(directory, index + 0x16);
+        int date = IntUtils.getInt16(directory, index + 0x18);
+        int cluster = IntUtils.getInt16(directory, index + 0x1A);
+        long size = IntUtils.getInt32(directory, index + 0x1C) & 0xFFFFFFFFL;
+
+        return new DirectoryEntry(name, attributes, dateTime(date, time), cluster, size);
+    }
+
+    /**
+     * Convert DOS date and time.
+     *
+     * @param date Date: bits 15-9 year since 1980, bits 8-5 month, bits 4-0 day.
+     * @param time Time: bits 15-11 hours, bits 10-5 minutes, bits 4-0 seconds / 2.
+     * @return Date and time or null, if invalid.
+     */
+    private static LocalDateTime dateTime(int date, int time) {
+        try {
+            return LocalDateTime.of(
+                    1980 + (date >> 9), (date >> 5) & 0x0F, date & 0x1F,
+                    time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package de.heiden.ataripart.image.fat;
+
+import de.heiden.ataripart.image.BootSector;
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.IntUtils;
+import de.heiden.ataripart.image.Partition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Read only FAT12/FAT16 file system of a partition.
+ * <p>
+ * The geometry is taken from the BIOS parameter block of the partition,
+ * including Atari logical sectors larger than 512 bytes.
+ * The FAT is read into memory, file contents are copied with contiguous channel transfers.
+ */
+public class FatFileSystem {
+    /**
+     * Hard disk image.
+     */
+    private final ImageReader image;
+
+    /**
+     * Is the FAT 12 bit wide? Otherwise it is 16 bit wide.
+     */
+    private final boolean fat12;
+
+    /**
+     * Bytes per cluster.
+     */
+    private final int clusterSize;
+
+    /**
+     * Number of data clusters.
+     */
+    private final int clusters;
+
+    /**
+     * Absolute offset of the first FAT.
+     */
+    private final long fatOffset;
+
+    /**
+     * Absolute offset of the root directory.
+     */
+    private final long rootDirectoryOffset;
+
+    /**
+     * Size of the root directory in bytes.
+     */
+    private final int rootDirectorySize;
+
+    /**
+     * Absolute offset of the data area (cluster 2).
+     */
+    private final long dataOffset;
+
+    /**
+     * First FAT, little endian.
+     */
+    private final ByteBuffer fat;
+
+    /**
+     * Constructor. Reads the FAT.
+     *
+     * @param image Hard disk image.
+     * @param partition Partition. Its boot sector has to be read already.
+     */
+    public FatFileSystem(ImageReader image, Partition partition) throws IOException {
+        this.image = image;
+
+        BootSector bootSector = partition.getBootSector();
+        if (bootSector == null) {
+            throw new IOException("Partition at " + partition.getAbsoluteStart() + " has no boot sector.");
+        }
+        int bytesPerSector = bootSector.getBytesPerSector();
+        if (bytesPerSector < 512 || Integer.bitCount(bytesPerSector) != 1 ||
+                bootSector.getSectorsPerCluster() == 0 || bootSector.getNumFATs() == 0 || bootSector.getSectorsPerFAT() == 0) {
+            throw new IOException("Partition at " + partition.getAbsoluteStart() + " has an invalid BIOS parameter block.");
+        }
+
+        long start = partition.getAbsoluteStart();
+        long size = bootSector.getSectors() > 0 ? bootSector.getSectors() * bytesPerSector : partition.getLength();
+        this.clusterSize = bootSector.getSectorsPerCluster() * bytesPerSector;
+        this.fatOffset = start + (long) bootSector.getReservedSectors() * bytesPerSector;
+        this.rootDirectoryOffset = fatOffset + (long) bootSector.getNumFATs() * bootSector.getSectorsPerFAT() * bytesPerSector;
+        this.rootDirectorySize = bootSector.getMaxDirectoryEntries() * 32;
+        // The root directory occupies whole sectors.
+        this.dataOffset = rootDirectoryOffset + (rootDirectorySize + bytesPerSector - 1) / bytesPerSector * bytesPerSector;
+        this.clusters = (int) Math.max(0, (start + size - dataOffset) / clusterSize);
+        // GEMDOS always uses 16 bit FATs on hard disks, so small partitions are FAT16 too,
+        // unless the BIOS parameter block explicitly declares FAT12 or a non hard disk media.
+        this.fat12 = "FAT12".equals(bootSector.getType()) ||
+                clusters < 4085 && !"FAT16".equals(bootSector.getType()) && bootSector.getMediaDescriptor() != 0xF8;
+
+        this.fat = ByteBuffer.allocate(bootSector.getSectorsPerFAT() * bytesPerSector);
+        fat.order(ByteOrder.LITTLE_ENDIAN);
+        image.read(fatOffset, fat);
+    }
+
+    /**
+     * Is the FAT 12 bit wide? Otherwise it is 16 bit wide.
+     */
+    public boolean isFat12() {
+        return fat12;
+    }
+
+    /**
+     * Bytes per cluster.
+     */
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * Number of data clusters.
+     */
+    public int getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Absolute offset of the data area (cluster 2).
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Absolute offset of a cluster.
+     *
+     * @param cluster Cluster, starting at 2.
+     */
+    public long getClusterOffset(int cluster) {
+        return dataOffset + (long) (cluster - 2) * clusterSize;
+    }
+
+    /**
+     * FAT entry of a cluster.
+     *
+     * @param cluster Cluster.
+     * @return Next cluster, 0 for free clusters, end of chain and bad cluster markers are mapped to 16 bit.
+     */
+    public int getFatEntry(int cluster) {
+        if (!fat12) {
+            int index = cluster * 2;
+            return index + 2 <= fat.capacity() ? IntUtils.getInt16(fat, index) : 0xFFFF;
+        }
+
+        int index = cluster * 3 / 2;
+        if (index + 2 > fat.capacity()) {
+            return 0xFFFF;
+        }
+        int entry = IntUtils.getInt16(fat, index);
+        entry = (cluster & 1) != 0 ? entry >> 4 : entry & 0x0FFF;
+        // Map special values to 16 bit.
+        return entry >= 0x0FF7 ? entry | 0xF000 : entry;
+    }
+
+    /**
+     * Is the cluster allocated?.
+     *
+     * @param cluster Cluster, starting at 2.
+     */
+    public boolean isAllocated(int cluster) {
+        int entry = getFatEntry(cluster);
+        return entry != 0 && entry != 0xFFF7;
+    }
+
+    /**
+     * Bitmap of all allocated clusters. Bit n represents cluster n + 2.
+     */
+    public BitSet getAllocatedClusters() {
+        BitSet result = new BitSet(clusters);
+        for (int cluster = 2; cluster < clusters + 2; cluster++) {
+            if (isAllocated(cluster)) {
+                result.set(cluster - 2);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cluster chain.
+     *
+     * @param cluster First cluster.
+     * @return All clusters of the chain. Stops at invalid clusters and loops.
+     */
+    public List<Integer> getChain(int cluster) {
+        List<Integer> result = new ArrayList<>();
+        BitSet visited = new BitSet();
+        while (cluster >= 2 && cluster < clusters + 2 && !visited.get(cluster)) {
+            visited.set(cluster);
+            result.add(cluster);
+            cluster = getFatEntry(cluster);
+        }
+        return result;
+    }
+
+    /**
+     * Sanity check of the FAT and the root directory:
+     * All FAT entries point into the data area and all root directory entries start at allocated clusters.
+     */
+    public boolean isConsistent() throws IOException {
+        for (int cluster = 2; cluster < clusters + 2; cluster++) {
+            int entry = getFatEntry(cluster);
+            // 0xFFF0 and above are reserved, bad cluster and end of chain markers.
+            if (entry != 0 && entry < 0xFFF0 && (entry < 2 || entry >= clusters + 2)) {
+                return false;
+            }
+        }
+
+        for (DirectoryEntry entry : getRootDirectory()) {
+            int cluster = entry.getCluster();
+            if (cluster != 0 && (cluster < 2 || cluster >= clusters + 2 || !isAllocated(cluster))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Entries of the root directory.
+     */
+    public List<DirectoryEntry> getRootDirectory() throws IOException {
+        ByteBuffer directory = ByteBuffer.allocate(rootDirectorySize);
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+        image.read(rootDirectoryOffset, directory);
+        return parseDirectory(directory);
+    }
+
+    /**
+     * Entries of a sub directory.
+     *
+     * @param directory Directory entry of the sub directory.
+     */
+    public List<DirectoryEntry> getDirectory(DirectoryEntry directory) throws IOException {
+        List<Integer> chain = getChain(directory.getCluster());
+        ByteBuffer entries = ByteBuffer.allocate(chain.size() * clusterSize);
+        entries.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer cluster = ByteBuffer.allocate(clusterSize);
+        for (int c : chain) {
+            image.read(getClusterOffset(c), cluster);
+            entries.put(cluster);
+        }
+        return parseDirectory(entries);
+    }
+
+    /**
+     * Parse all entries of a directory.
+     *
+     * @param directory Directory, little endian.
+     */
+    private static List<DirectoryEntry> parseDirectory(ByteBuffer directory) {
+        List<DirectoryEntry> result = new ArrayList<>();
+        for (int index = 0; index + 32 <= directory.capacity(); index += 32) {
+            if (IntUtils.getInt8(directory, index) == 0x00) {
+                // End of directory.
+                break;
+            }
+            DirectoryEntry entry = DirectoryEntry.parse(directory, index);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy a file.
+     * Contiguous clusters are copied with a single transfer.
+     * If the cluster chain is shorter than the file, just the clusters of the chain are copied.
+     *
+     * @param file Directory entry of the file.
+     * @param destination File to write to. Gets overwritten, if it exists.
+     * @return Has the whole file been copied?. False, if the cluster chain is too short.
+     */
+    public boolean copy(DirectoryEntry file, Path destination) throws IOException {
+        long remaining = file.getSize();
+        try (FileChannel channel = FileChannel.open(destination, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            List<Integer> chain = getChain(file.getCluster());
+            for (int i = 0; i < chain.size() && remaining > 0; ) {
+                // Find contiguous run of clusters.
+                int first = chain.get(i);
+                int count = 1;
+                while (i + count < chain.size() && chain.get(i + count) == first + count) {
+                    count++;
+                }
+                i += count;
+
+                long length = Math.min(remaining, (long) count * clusterSize);
+                image.transferTo(getClusterOffset(first), length, channel);
+                remaining -= length;
+            }
+        }
+        setLastModified(file, destination);
+        return remaining == 0;
+    }
+
+    /**
+     * Recursively copy all files of the file system to a directory.
+     * Files with a too short cluster chain are copied as far as possible, see {@link #copy(DirectoryEntry, Path)}.
+     *
+     * @param destination Directory to copy to. Has to exist.
+     * @param truncated Gets called with the copy of each file, whose cluster chain is too short.
+     * @return Number of copied files, including truncated ones.
+     */
+    public int copyAll(Path destination, Consumer<Path> truncated) throws IOException {
+        return copyAll(getRootDirectory(), destination, truncated, new BitSet());
+    }
+
+    /**
+     * Recursively copy all files of a directory.
+     *
+     * @param directory Directory entries.
+     * @param destination Directory to copy to. Has to exist.
+     * @param truncated Gets called with the copy of each file, whose cluster chain is too short.
+     * @param visited First clusters of all already visited directories, to avoid loops.
+     * @return Number of copied files.
+     */
+    private int copyAll(List<DirectoryEntry> directory, Path destination, Consumer<Path> truncated, BitSet visited) throws IOException {
+        int result = 0;
+        for (DirectoryEntry entry : directory) {
+            if (entry.getName().isEmpty()) {
+                continue;
+            }
+            Path path = destination.resolve(entry.getName());
+            if (entry.isDirectory()) {
+                if (entry.getCluster() < 2 || visited.get(entry.getCluster())) {
+                    continue;
+                }
+                visited.set(entry.getCluster());
+                Files.createDirectories(path);
+                result += copyAll(getDirectory(entry), path, truncated, visited);
+                setLastModified(entry, path);
+            } else {
+                if (!copy(entry, path)) {
+                    truncated.accept(path);
+                }
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set time of last modification.
+     *
+     * @param entry Directory entry.
+     * @param path Copied file.
+     */
+    private static void setLastModified(DirectoryEntry entry, Path path) throws IOException {
+        if (entry.getLastModified() != null) {
+            Files.setLastModifiedTime(path, FileTime.from(entry.getLastModified().atZone(ZoneId.systemDefault()).toInstant()));
+        }
+    }
+}
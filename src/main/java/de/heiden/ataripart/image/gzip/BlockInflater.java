@@ -0,0 +1,493 @@
+package de.heiden.ataripart.image.gzip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+/**
+ * Pure Java inflater for gzip files, which decodes block by block.
+ * <p>
+ * In contrast to {@link java.util.zip.Inflater} it exposes the bit position of each deflate block boundary
+ * and the last 32 KB of output, which is everything needed to resume inflating at that block later on.
+ * The output itself is not returned, it is just kept in the sliding window.
+ */
+public class BlockInflater {
+    /**
+     * Size of the deflate sliding window.
+     */
+    public static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * Size of chunks the compressed input is read in.
+     */
+    private static final int INPUT_SIZE = 64 * 1024;
+
+    /**
+     * Maximum bit length of a huffman code.
+     */
+    private static final int MAX_BITS = 15;
+
+    /**
+     * Base lengths of length symbols 257..285.
+     */
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+
+    /**
+     * Extra bits of length symbols 257..285.
+     */
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+
+    /**
+     * Base distances of distance symbols 0..29.
+     */
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+
+    /**
+     * Extra bits of distance symbols 0..29.
+     */
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    /**
+     * Order of the code length code lengths in dynamic block headers.
+     */
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    /**
+     * Decoding table for fixed literal/length codes.
+     */
+    private static final Huffman FIXED_LITERALS;
+
+    /**
+     * Decoding table for fixed distance codes.
+     */
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        FIXED_LITERALS = new Huffman(lengths, 288);
+        int[] distances = new int[30];
+        for (int i = 0; i < 30; i++) {
+            distances[i] = 5;
+        }
+        FIXED_DISTANCES = new Huffman(distances, 30);
+    }
+
+    /**
+     * Compressed input.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Buffer for compressed input.
+     */
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+
+    /**
+     * Position in the compressed file of the next chunk to read.
+     */
+    private long inputPosition;
+
+    /**
+     * Bits read from the input, but not consumed yet. LSB first.
+     */
+    private long bitBuffer;
+
+    /**
+     * Number of valid bits in {@link #bitBuffer}.
+     */
+    private int bitCount;
+
+    /**
+     * Sliding window with the last output.
+     */
+    private final byte[] window = new byte[WINDOW_SIZE];
+
+    /**
+     * Total number of output bytes.
+     */
+    private long total;
+
+    /**
+     * Total number of output bytes at the start of the current gzip member.
+     */
+    private long memberStart;
+
+    /**
+     * Constructor.
+     *
+     * @param channel Compressed input.
+     * @param position Position in the compressed file to start at.
+     */
+    public BlockInflater(FileChannel channel, long position) {
+        this.channel = channel;
+        this.inputPosition = position;
+        this.input.flip();
+    }
+
+    /**
+     * Total number of output bytes.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Position in the compressed input in bits.
+     */
+    public long getBitPosition() {
+        return (inputPosition - input.remaining()) * 8 - bitCount;
+    }
+
+    /**
+     * Last output of the current gzip member, at most 32 KB.
+     */
+    public byte[] getWindow() {
+        int length = (int) Math.min(WINDOW_SIZE, total - memberStart);
+        byte[] result = new byte[length];
+        int start = (int) (total - length) & (WINDOW_SIZE - 1);
+        int first = Math.min(length, WINDOW_SIZE - start);
+        System.arraycopy(window, start, result, 0, first);
+        System.arraycopy(window, 0, result, first, length - first);
+        return result;
+    }
+
+    //
+    // Gzip
+    //
+
+    /**
+     * Read the header of the next gzip member.
+     *
+     * @return Whether another gzip member follows. False at the end of the input or on trailing garbage.
+     */
+    public boolean readHeader() throws IOException {
+        skipToByte();
+        if (!fill(16) || bits(16) != 0x8B1F) {
+            return false;
+        }
+        if (bits(8) != 8) {
+            throw new ZipException("Unsupported compression method.");
+        }
+        int flags = bits(8);
+        // Modification time, extra flags and operating system.
+        for (int i = 0; i < 6; i++) {
+            bits(8);
+        }
+        if ((flags & 0x04) != 0) {
+            // Extra field.
+            for (int length = bits(16); length > 0; length--) {
+                bits(8);
+            }
+        }
+        if ((flags & 0x08) != 0) {
+            // File name.
+            while (bits(8) != 0);
+        }
+        if ((flags & 0x10) != 0) {
+            // Comment.
+            while (bits(8) != 0);
+        }
+        if ((flags & 0x02) != 0) {
+            // Header CRC.
+            bits(16);
+        }
+
+        memberStart = total;
+        return true;
+    }
+
+    /**
+     * Read the trailer of the current gzip member and check the uncompressed size.
+     */
+    public void readTrailer() throws IOException {
+        skipToByte();
+        // CRC32.
+        bits(16);
+        bits(16);
+        long size = bits(16) | (long) bits(16) << 16;
+        if (size != ((total - memberStart) & 0xFFFFFFFFL)) {
+            throw new ZipException("Size of gzip member does not match.");
+        }
+    }
+
+    //
+    // Deflate
+    //
+
+    /**
+     * Inflate the next deflate block.
+     *
+     * @return Whether more blocks follow. False after the final block.
+     */
+    public boolean inflateBlock() throws IOException {
+        boolean last = bits(1) != 0;
+        int type = bits(2);
+        switch (type) {
+            case 0:
+                stored();
+                break;
+            case 1:
+                codes(FIXED_LITERALS, FIXED_DISTANCES);
+                break;
+            case 2:
+                dynamic();
+                break;
+            default:
+                throw new ZipException("Invalid block type.");
+        }
+        return !last;
+    }
+
+    /**
+     * Copy a stored block.
+     */
+    private void stored() throws IOException {
+        skipToByte();
+        int length = bits(16);
+        if ((~bits(16) & 0xFFFF) != length) {
+            throw new ZipException("Invalid stored block length.");
+        }
+        for (; length > 0; length--) {
+            output((byte) bits(8));
+        }
+    }
+
+    /**
+     * Read the code tables of a dynamic block and decode the block.
+     */
+    private void dynamic() throws IOException {
+        int literals = bits(5) + 257;
+        int distances = bits(5) + 1;
+        int codeLengths = bits(4) + 4;
+        if (literals > 286 || distances > 30) {
+            throw new ZipException("Invalid dynamic block header.");
+        }
+
+        int[] lengths = new int[19];
+        for (int i = 0; i < codeLengths; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+        Huffman lengthCode = new Huffman(lengths, 19);
+
+        lengths = new int[literals + distances];
+        for (int i = 0; i < literals + distances; ) {
+            int symbol = decode(lengthCode);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+
+            int length = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new ZipException("Repeat without previous length.");
+                }
+                length = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > literals + distances) {
+                throw new ZipException("Too many code lengths.");
+            }
+            for (; repeat > 0; repeat--) {
+                lengths[i++] = length;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("Missing end of block code.");
+        }
+
+        int[] distanceLengths = new int[distances];
+        System.arraycopy(lengths, literals, distanceLengths, 0, distances);
+        codes(new Huffman(lengths, literals), new Huffman(distanceLengths, distances));
+    }
+
+    /**
+     * Decode a huffman coded block.
+     *
+     * @param literals Literal/length code.
+     * @param distances Distance code.
+     */
+    private void codes(Huffman literals, Huffman distances) throws IOException {
+        for (int symbol; (symbol = decode(literals)) != 256; ) {
+            if (symbol < 256) {
+                output((byte) symbol);
+                continue;
+            }
+
+            symbol -= 257;
+            if (symbol >= 29) {
+                throw new ZipException("Invalid length symbol.");
+            }
+            int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+            symbol = decode(distances);
+            if (symbol >= 30) {
+                throw new ZipException("Invalid distance symbol.");
+            }
+            int distance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+            if (distance > total - memberStart) {
+                throw new ZipException("Distance too far back.");
+            }
+            for (; length > 0; length--) {
+                output(window[(int) (total - distance) & (WINDOW_SIZE - 1)]);
+            }
+        }
+    }
+
+    /**
+     * Append a byte to the output.
+     *
+     * @param b Byte.
+     */
+    private void output(byte b) {
+        window[(int) total & (WINDOW_SIZE - 1)] = b;
+        total++;
+    }
+
+    /**
+     * Decode a huffman coded symbol.
+     *
+     * @param code Huffman code.
+     */
+    private int decode(Huffman code) throws IOException {
+        fill(code.bits);
+        int entry = code.table[(int) bitBuffer & ((1 << code.bits) - 1)];
+        int length = entry & 0x0F;
+        if (length == 0) {
+            throw new ZipException("Invalid huffman code.");
+        }
+        consume(length);
+        return entry >>> 4;
+    }
+
+    //
+    // Bit input
+    //
+
+    /**
+     * Read bits.
+     *
+     * @param n Number of bits, at most 16.
+     */
+    private int bits(int n) throws IOException {
+        fill(n);
+        int result = (int) bitBuffer & ((1 << n) - 1);
+        consume(n);
+        return result;
+    }
+
+    /**
+     * Consume bits.
+     *
+     * @param n Number of bits.
+     */
+    private void consume(int n) throws EOFException {
+        if (n > bitCount) {
+            throw new EOFException("Unexpected end of compressed data.");
+        }
+        bitBuffer >>>= n;
+        bitCount -= n;
+    }
+
+    /**
+     * Skip the remaining bits of the current byte.
+     */
+    private void skipToByte() throws EOFException {
+        consume(bitCount & 7);
+    }
+
+    /**
+     * Fill the bit buffer with at least the given number of bits, if possible.
+     *
+     * @param n Number of bits, at most 56.
+     * @return Whether the number of bits is available.
+     */
+    private boolean fill(int n) throws IOException {
+        while (bitCount < n) {
+            if (!input.hasRemaining()) {
+                input.clear();
+                int num = channel.read(input, inputPosition);
+                input.flip();
+                if (num <= 0) {
+                    return false;
+                }
+                inputPosition += num;
+            }
+            bitBuffer |= (long) (input.get() & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+        return true;
+    }
+
+    /**
+     * Canonical huffman code with a single level decoding table.
+     */
+    private static class Huffman {
+        /**
+         * Maximum code length.
+         */
+        private final int bits;
+
+        /**
+         * Decoding table, indexed by the next bits of input (LSB first).
+         * Each entry contains the symbol in the upper bits and the code length in the lower 4 bits.
+         */
+        private final int[] table;
+
+        /**
+         * Constructor.
+         *
+         * @param lengths Code lengths of all symbols.
+         * @param count Number of symbols.
+         */
+        private Huffman(int[] lengths, int count) {
+            int[] counts = new int[MAX_BITS + 1];
+            int bits = 1;
+            for (int i = 0; i < count; i++) {
+                counts[lengths[i]]++;
+                bits = Math.max(bits, lengths[i]);
+            }
+            counts[0] = 0;
+            this.bits = bits;
+            this.table = new int[1 << bits];
+
+            int[] next = new int[MAX_BITS + 2];
+            for (int length = 1, code = 0; length <= MAX_BITS; length++) {
+                code = (code + counts[length - 1]) << 1;
+                next[length] = code;
+            }
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0) {
+                    continue;
+                }
+                int code = next[length]++;
+                if (code >= 1 << length) {
+                    // Over subscribed code.
+                    continue;
+                }
+                int reversed = Integer.reverse(code) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = symbol << 4 | length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.heiden.ataripart.image.gzip;
+
+/**
+ * Point in a gzip file where inflating can be resumed.
+ * Either the start of a gzip member or a byte aligned deflate block boundary.
+ */
+public class Checkpoint {
+    /**
+     * Is this the start of a gzip member?.
+     */
+    private final boolean member;
+
+    /**
+     * Position in the uncompressed data.
+     */
+    private final long position;
+
+    /**
+     * Position in the compressed file.
+     */
+    private final long inputPosition;
+
+    /**
+     * Position of the compressed window in the index file.
+     */
+    private final long windowPosition;
+
+    /**
+     * Length of the compressed window in the index file. 0 if there is no window.
+     */
+    private final int windowLength;
+
+    /**
+     * Constructor.
+     *
+     * @param member Is this the start of a gzip member?.
+     * @param position Position in the uncompressed data.
+     * @param inputPosition Position in the compressed file.
+     * @param windowPosition Position of the compressed window in the index file.
+     * @param windowLength Length of the compressed window in the index file.
+     */
+    public Checkpoint(boolean member, long position, long inputPosition, long windowPosition, int windowLength) {
+        this.member = member;
+        this.position = position;
+        this.inputPosition = inputPosition;
+        this.windowPosition = windowPosition;
+        this.windowLength = windowLength;
+    }
+
+    /**
+     * Is this the start of a gzip member?.
+     */
+    public boolean isMember() {
+        return member;
+    }
+
+    /**
+     * Position in the uncompressed data.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Position in the compressed file.
+     */
+    public long getInputPosition() {
+        return inputPosition;
+    }
+
+    /**
+     * Position of the compressed window in the index file.
+     */
+    public long getWindowPosition() {
+        return windowPosition;
+    }
+
+    /**
+     * Length of the compressed window in the index file. 0 if there is no window.
+     */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    @Override
+    public String toString() {
+        return (member ? "Member" : "Block") + " at " + position + " (input at " + inputPosition + ")";
+    }
+}
@@ -0,0 +1,203 @@
+package de.heiden.ataripart.image.gzip;
+
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.jfr.ImageTransferEvent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Hard disk image reader for gzip compressed hard disk images.
+ * <p>
+ * Uses a {@link GzipIndex} for random access: Each read resumes inflating at the nearest checkpoint before the read position,
+ * so usually only about {@link GzipIndex#SPAN} bytes have to be inflated and skipped,
+ * and the image is never decompressed to disk.
+ * <p>
+ * Each read uses its own inflater, so reads are thread safe like those of {@link ImageReader}.
+ */
+public class GzipImageReader extends ImageReader {
+    /**
+     * Size of chunks the compressed input is read in.
+     */
+    private static final int INPUT_SIZE = 64 * 1024;
+
+    /**
+     * Size of chunks the uncompressed output is produced in.
+     */
+    private static final int OUTPUT_SIZE = 64 * 1024;
+
+    /**
+     * Checkpoint index.
+     */
+    private final GzipIndex index;
+
+    /**
+     * Constructor. Builds the checkpoint index, if needed.
+     *
+     * @param file The file with the gzip compressed hard disk image.
+     */
+    public GzipImageReader(Path file) throws IOException {
+        super(file);
+        this.index = GzipIndex.open(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public long size() {
+        return index.getSize();
+    }
+
+    @Override
+    protected int readFully(long position, ByteBuffer buffer) throws IOException {
+        if (position >= size()) {
+            return buffer.hasRemaining() ? -1 : 0;
+        }
+        int start = buffer.position();
+        inflate(position, buffer.remaining(), (bytes, offset, length) -> buffer.put(bytes, offset, length));
+        return buffer.position() - start;
+    }
+
+    @Override
+    public void transferTo(long position, long count, WritableByteChannel destination) throws IOException {
+        ImageTransferEvent event = ImageTransferEvent.start();
+        long copied = inflate(position, count, (bytes, offset, length) -> {
+            ByteBuffer data = ByteBuffer.wrap(bytes, offset, length);
+            while (data.hasRemaining()) {
+                destination.write(data);
+            }
+        });
+        count(copied);
+        event.record(position, copied);
+        if (copied != count) {
+            throw new IOException("Transferred wrong amount of bytes: " + copied + " instead of " + count + ".");
+        }
+    }
+
+    /**
+     * Inflate a part of the image.
+     *
+     * @param position Absolute position in hard disk image.
+     * @param count Number of bytes.
+     * @param sink Receiver of the uncompressed data.
+     * @return Number of bytes passed to the sink. Less than count, if the end of the image has been reached.
+     */
+    private long inflate(long position, long count, Sink sink) throws IOException {
+        List<Checkpoint> checkpoints = index.getCheckpoints();
+        int current = index.find(position);
+        Checkpoint checkpoint = checkpoints.get(current);
+
+        Input input = new Input(checkpoint.getInputPosition());
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] window = index.readWindow(checkpoint);
+            if (window.length > 0) {
+                inflater.setDictionary(window);
+            }
+
+            byte[] output = new byte[OUTPUT_SIZE];
+            long out = checkpoint.getPosition();
+            long result = 0;
+            while (result < count) {
+                if (inflater.finished()) {
+                    // Continue with the next gzip member, if any.
+                    do {
+                        current++;
+                    } while (current < checkpoints.size() && !checkpoints.get(current).isMember());
+                    if (current >= checkpoints.size()) {
+                        break;
+                    }
+                    checkpoint = checkpoints.get(current);
+                    input = new Input(checkpoint.getInputPosition());
+                    inflater.reset();
+                    continue;
+                }
+                if (inflater.needsInput()) {
+                    input.feed(inflater);
+                }
+
+                int num = inflater.inflate(output);
+                int skip = (int) Math.max(0, Math.min(num, position - out));
+                int length = (int) Math.min(num - skip, count - result);
+                if (length > 0) {
+                    sink.accept(output, skip, length);
+                    result += length;
+                }
+                out += num;
+            }
+
+            return result;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Receiver of uncompressed data.
+     */
+    @FunctionalInterface
+    private interface Sink {
+        /**
+         * Accept uncompressed data.
+         *
+         * @param bytes Buffer.
+         * @param offset Offset of data in buffer.
+         * @param length Length of data.
+         */
+        void accept(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Compressed input.
+     */
+    private class Input {
+        /**
+         * Position in the compressed file of the next chunk to read.
+         */
+        private long position;
+
+        /**
+         * Buffer for compressed input.
+         */
+        private final byte[] buffer = new byte[INPUT_SIZE];
+
+        /**
+         * Constructor.
+         *
+         * @param position Position in the compressed file.
+         */
+        private Input(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Feed the next chunk of compressed input to the inflater.
+         *
+         * @param inflater Inflater.
+         */
+        private void feed(Inflater inflater) throws IOException {
+            int num = getChannel().read(ByteBuffer.wrap(buffer), position);
+            if (num <= 0) {
+                throw new EOFException("Unexpected end of compressed image.");
+            }
+            inflater.setInput(buffer, 0, num);
+            position += num;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package de.heiden.ataripart.image.gzip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Checkpoint index of a gzip file for random access, in the style of zran.
+ * <p>
+ * The index is stored in a sidecar file next to the gzip file, e.g. "disk.img.gz.idx".
+ * If the directory of the gzip file is not writable, e.g. on read-only media, the index is stored in the cache directory
+ * of the user ("~/.cache/ataripart") instead. If that is not writable either, a temporary index is used,
+ * which gets deleted on close.
+ * It gets built by inflating the whole gzip file once.
+ * There is a checkpoint at the start of each gzip member and at the first byte aligned deflate block boundary
+ * after each {@link #SPAN} bytes of uncompressed data.
+ * {@link java.util.zip.Inflater} can only start at byte boundaries, so unaligned block boundaries are not used.
+ * Every block following a stored block is aligned and about every eighth of the other blocks is aligned by chance,
+ * so the distance between checkpoints usually exceeds the span only by a few blocks.
+ * Checkpoints at block boundaries carry the last 32 KB of uncompressed data, stored deflate compressed.
+ * The windows stay in the index file and are read on demand.
+ * <p>
+ * The index gets rebuilt, if the size or the modification time of the gzip file changes.
+ */
+public class GzipIndex implements Closeable {
+    /**
+     * Distance between checkpoints in the uncompressed data.
+     */
+    public static final int SPAN = 1024 * 1024;
+
+    /**
+     * Magic number of index files: "ATARIGZX".
+     */
+    private static final long MAGIC = 0x4154415249475A58L;
+
+    /**
+     * Version of index file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of index file header.
+     */
+    private static final int HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 4;
+
+    /**
+     * Size of checkpoint record without window.
+     */
+    private static final int RECORD_SIZE = 1 + 8 + 8 + 4;
+
+    /**
+     * Index file.
+     */
+    private final FileChannel index;
+
+    /**
+     * Temporary index file, to delete on close. Null for persistent index files.
+     */
+    private final Path temporary;
+
+    /**
+     * Size of the uncompressed data.
+     */
+    private final long size;
+
+    /**
+     * All checkpoints in ascending order.
+     */
+    private final List<Checkpoint> checkpoints;
+
+    /**
+     * Uncompressed positions of all checkpoints, for binary search.
+     */
+    private final long[] positions;
+
+    /**
+     * Constructor.
+     *
+     * @param index Index file.
+     * @param temporary Temporary index file, to delete on close. Null for persistent index files.
+     * @param size Size of the uncompressed data.
+     * @param checkpoints All checkpoints in ascending order.
+     */
+    private GzipIndex(FileChannel index, Path temporary, long size, List<Checkpoint> checkpoints) {
+        this.index = index;
+        this.temporary = temporary;
+        this.size = size;
+        this.checkpoints = Collections.unmodifiableList(checkpoints);
+        this.positions = new long[checkpoints.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = checkpoints.get(i).getPosition();
+        }
+    }
+
+    /**
+     * Open the index of a gzip file. Builds the index, if it does not exist yet or is outdated.
+     *
+     * @param file Gzip file.
+     */
+    public static GzipIndex open(Path file) throws IOException {
+        List<Path> indexFiles = Arrays.asList(indexFile(file), cacheFile(file));
+        for (Path indexFile : indexFiles) {
+            GzipIndex result = Files.isRegularFile(indexFile) ? load(file, indexFile, false) : null;
+            if (result != null) {
+                return result;
+            }
+        }
+
+        for (Path indexFile : indexFiles) {
+            if (isWritable(indexFile)) {
+                build(file, indexFile);
+                return loadBuilt(file, indexFile, false);
+            }
+        }
+
+        // Neither the directory of the gzip file nor the cache directory are writable.
+        Path indexFile = Files.createTempFile("ataripart", ".idx");
+        try {
+            build(file, indexFile);
+            return loadBuilt(file, indexFile, true);
+        } catch (IOException e) {
+            Files.deleteIfExists(indexFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Sidecar index file of a gzip file.
+     *
+     * @param file Gzip file.
+     */
+    public static Path indexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * Index file of a gzip file in the cache directory of the user.
+     * The name contains a hash of the absolute path of the gzip file, to distinguish files with the same name.
+     *
+     * @param file Gzip file.
+     */
+    static Path cacheFile(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        return Paths.get(System.getProperty("user.home"), ".cache", "ataripart")
+                .resolve(String.format("%s-%08x.idx", absolute.getFileName(), absolute.toString().hashCode()));
+    }
+
+    /**
+     * Can an index file be written?. Creates the directory of the index file, if needed.
+     *
+     * @param indexFile Index file.
+     */
+    private static boolean isWritable(Path indexFile) {
+        Path directory = indexFile.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            return false;
+        }
+        return Files.isWritable(directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Size of the uncompressed data.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * All checkpoints in ascending order.
+     */
+    public List<Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Index of the last checkpoint at or before the given position.
+     *
+     * @param position Position in the uncompressed data.
+     */
+    public int find(long position) {
+        int index = Arrays.binarySearch(positions, position);
+        if (index < 0) {
+            return Math.max(0, -index - 2);
+        }
+        // Use the last of several checkpoints at the same position, e.g. for empty gzip members.
+        while (index + 1 < positions.length && positions[index + 1] == position) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Read the window of a checkpoint.
+     *
+     * @param checkpoint Checkpoint.
+     * @return Uncompressed window, empty if there is none.
+     */
+    public byte[] readWindow(Checkpoint checkpoint) throws IOException {
+        if (checkpoint.getWindowLength() == 0) {
+            return new byte[0];
+        }
+
+        ByteBuffer compressed = ByteBuffer.allocate(checkpoint.getWindowLength());
+        while (compressed.hasRemaining()) {
+            if (index.read(compressed, checkpoint.getWindowPosition() + compressed.position()) < 0) {
+                throw new EOFException("Index is truncated.");
+            }
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            byte[] window = new byte[BlockInflater.WINDOW_SIZE];
+            int length = 0;
+            while (!inflater.finished() && length < window.length) {
+                int num = inflater.inflate(window, length, window.length - length);
+                if (num == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Window is truncated.");
+                }
+                length += num;
+            }
+            return Arrays.copyOf(window, length);
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    //
+    // Building and loading
+    //
+
+    /**
+     * Build the index of a gzip file by inflating it completely.
+     *
+     * @param file Gzip file.
+     * @param indexFile Index file to write.
+     */
+    private static void build(Path file, Path indexFile) throws IOException {
+        // A unique temporary file, so concurrent builders of the same index do not interfere.
+        Path temp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+        Deflater deflater = new Deflater();
+        try (FileChannel gzip = FileChannel.open(file, READ);
+             FileChannel output = FileChannel.open(temp, TRUNCATE_EXISTING, WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(output), 64 * 1024));
+            out.write(new byte[HEADER_SIZE]);
+            int count = 0;
+
+            BlockInflater inflater = new BlockInflater(gzip, 0);
+            byte[] buffer = new byte[BlockInflater.WINDOW_SIZE + 1024];
+            while (inflater.readHeader()) {
+                // Start of gzip member: No window needed.
+                out.writeByte(1);
+                out.writeLong(inflater.getTotal());
+                out.writeLong(inflater.getBitPosition() / 8);
+                out.writeInt(0);
+                count++;
+
+                long last = inflater.getTotal();
+                do {
+                    if (inflater.getTotal() - last >= SPAN && inflater.getBitPosition() % 8 == 0) {
+                        last = inflater.getTotal();
+                        deflater.reset();
+                        deflater.setInput(inflater.getWindow());
+                        deflater.finish();
+                        int length = 0;
+                        while (!deflater.finished()) {
+                            if (length == buffer.length) {
+                                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                            }
+                            length += deflater.deflate(buffer, length, buffer.length - length);
+                        }
+
+                        out.writeByte(0);
+                        out.writeLong(last);
+                        out.writeLong(inflater.getBitPosition() / 8);
+                        out.writeInt(length);
+                        out.write(buffer, 0, length);
+                        count++;
+                    }
+                } while (inflater.inflateBlock());
+
+                inflater.readTrailer();
+            }
+            if (count == 0) {
+                throw new ZipException("Not in gzip format.");
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(Files.size(file));
+            header.putLong(Files.getLastModifiedTime(file).toMillis());
+            header.putLong(inflater.getTotal());
+            header.putInt(count);
+            header.flip();
+            while (header.hasRemaining()) {
+                output.write(header, header.position());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        try {
+            Files.move(temp, indexFile, ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Load the just built index of a gzip file.
+     *
+     * @param file Gzip file.
+     * @param indexFile Index file.
+     * @param temporary Delete the index file on close?.
+     */
+    private static GzipIndex loadBuilt(Path file, Path indexFile, boolean temporary) throws IOException {
+        GzipIndex result = load(file, indexFile, temporary);
+        if (result == null) {
+            throw new IOException("Failed to build index " + indexFile.toAbsolutePath() + ".");
+        }
+        return result;
+    }
+
+    /**
+     * Load the index of a gzip file.
+     *
+     * @param file Gzip file.
+     * @param indexFile Index file.
+     * @param temporary Delete the index file on close?.
+     * @return Index or null, if the index file is invalid or outdated.
+     */
+    private static GzipIndex load(Path file, Path indexFile, boolean temporary) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        long size;
+        try (InputStream stream = Files.newInputStream(indexFile)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            if (Files.size(indexFile) < HEADER_SIZE ||
+                    in.readLong() != MAGIC ||
+                    in.readInt() != VERSION ||
+                    in.readLong() != Files.size(file) ||
+                    in.readLong() != Files.getLastModifiedTime(file).toMillis()) {
+                return null;
+            }
+            size = in.readLong();
+            int count = in.readInt();
+
+            long offset = HEADER_SIZE;
+            byte[] window = new byte[BlockInflater.WINDOW_SIZE];
+            for (int i = 0; i < count; i++) {
+                boolean member = in.readByte() != 0;
+                long position = in.readLong();
+                long inputPosition = in.readLong();
+                int windowLength = in.readInt();
+                offset += RECORD_SIZE;
+                checkpoints.add(new Checkpoint(member, position, inputPosition, offset, windowLength));
+                if (windowLength > window.length) {
+                    window = new byte[windowLength];
+                }
+                in.readFully(window, 0, windowLength);
+                offset += windowLength;
+            }
+        } catch (EOFException e) {
+            // Truncated index.
+            return null;
+        }
+
+        return new GzipIndex(FileChannel.open(indexFile, READ), temporary ? indexFile : null, size, checkpoints);
+    }
+}
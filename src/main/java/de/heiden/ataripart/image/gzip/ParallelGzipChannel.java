@@ -0,0 +1,219 @@
+package de.heiden.ataripart.image.gzip;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Channel which gzip compresses the written data in parallel, pigz style.
+ * <p>
+ * The data is split into fixed size blocks, which are compressed independently on an executor.
+ * Each block becomes a complete gzip member. The members are written in order,
+ * so the output is a standard gzip stream of concatenated members, which every gzip implementation can read.
+ * Because each member starts with an empty window, the compression ratio is slightly worse than that of a single stream.
+ * As a bonus, the member starts are natural checkpoints for {@link GzipIndex}.
+ * <p>
+ * Not thread safe: Only the compression runs in parallel.
+ */
+public class ParallelGzipChannel implements WritableByteChannel {
+    /**
+     * Default size of blocks.
+     */
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Gzip member header: Magic, deflate, no flags, no modification time, no extra flags, unknown operating system.
+     */
+    private static final byte[] HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+    /**
+     * Destination for compressed data.
+     */
+    private final WritableByteChannel destination;
+
+    /**
+     * Executor to compress the blocks with.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Compression level.
+     */
+    private final int level;
+
+    /**
+     * Maximum number of blocks being compressed at once.
+     */
+    private final int maxPending;
+
+    /**
+     * Blocks being compressed, in order.
+     */
+    private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+
+    /**
+     * Current block.
+     */
+    private byte[] block;
+
+    /**
+     * Number of bytes in the current block.
+     */
+    private int length;
+
+    /**
+     * Has at least one member been written?.
+     */
+    private boolean written;
+
+    /**
+     * Is this channel open?.
+     */
+    private boolean open = true;
+
+    /**
+     * Constructor.
+     *
+     * @param destination Destination for compressed data. Gets closed when this channel is closed.
+     * @param executor Executor to compress the blocks with.
+     * @param threads Number of threads of the executor. Limits the number of blocks being compressed at once.
+     * @param level Compression level, see {@link Deflater}.
+     */
+    public ParallelGzipChannel(WritableByteChannel destination, ExecutorService executor, int threads, int level) {
+        this.destination = destination;
+        this.executor = executor;
+        this.level = level;
+        this.maxPending = 2 * Math.max(1, threads);
+        this.block = new byte[BLOCK_SIZE];
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        int result = source.remaining();
+        while (source.hasRemaining()) {
+            int num = Math.min(source.remaining(), block.length - length);
+            source.get(block, length, num);
+            length += num;
+            if (length == block.length) {
+                submit();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compress all written data and close the destination.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+
+        try {
+            // At least one member is needed for a valid gzip stream.
+            if (length > 0 || !written) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            for (Future<ByteBuffer> member : pending) {
+                member.cancel(true);
+            }
+            destination.close();
+        }
+    }
+
+    /**
+     * Submit the current block for compression and start a new one.
+     */
+    private void submit() throws IOException {
+        if (pending.size() >= maxPending) {
+            writeNext();
+        }
+
+        byte[] data = block;
+        int dataLength = length;
+        pending.add(executor.submit(() -> compress(data, dataLength)));
+        written = true;
+        block = new byte[BLOCK_SIZE];
+        length = 0;
+    }
+
+    /**
+     * Wait for the oldest block to be compressed and write it.
+     */
+    private void writeNext() throws IOException {
+        try {
+            ByteBuffer member = pending.remove().get();
+            while (member.hasRemaining()) {
+                destination.write(member);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression has been interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Compress a block into a complete gzip member.
+     *
+     * @param data Data.
+     * @param length Length of data.
+     * @return Gzip member.
+     */
+    private ByteBuffer compress(byte[] data, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            // Incompressible data grows slightly.
+            byte[] member = new byte[HEADER.length + length + length / 1000 + 64];
+            System.arraycopy(HEADER, 0, member, 0, HEADER.length);
+            int size = HEADER.length;
+            while (!deflater.finished()) {
+                if (size == member.length) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - size);
+            }
+
+            // Trailer: CRC32 and size.
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            ByteBuffer result = ByteBuffer.wrap(member.length >= size + 8 ? member : Arrays.copyOf(member, size + 8));
+            result.order(ByteOrder.LITTLE_ENDIAN);
+            result.putInt(size, (int) crc.getValue());
+            result.putInt(size + 4, length);
+            result.limit(size + 8);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+}
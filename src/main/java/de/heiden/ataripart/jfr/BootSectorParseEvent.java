@@ -0,0 +1,57 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of a boot sector (BIOS parameter block).
+ */
+@Name("de.heiden.ataripart.BootSectorParse")
+@Label("Boot Sector Parse")
+@Category({"AtariPart", "Parsing"})
+public class BootSectorParseEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final BootSectorParseEvent SHARED = new BootSectorParseEvent();
+
+    /**
+     * Detected file system.
+     */
+    @Label("File System")
+    private String fileSystem;
+
+    /**
+     * Bytes per sector.
+     */
+    @Label("Bytes per Sector")
+    private int bytesPerSector;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static BootSectorParseEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        BootSectorParseEvent event = new BootSectorParseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param fileSystem Detected file system.
+     * @param bytesPerSector Bytes per sector.
+     */
+    public void record(String fileSystem, int bytesPerSector) {
+        if (this != SHARED && shouldCommit()) {
+            this.fileSystem = fileSystem;
+            this.bytesPerSector = bytesPerSector;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Copying all files of a partition.
+ */
+@Name("de.heiden.ataripart.ExtractFiles")
+@Label("Extract Files")
+@Category({"AtariPart", "Extraction"})
+public class ExtractFilesEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final ExtractFilesEvent SHARED = new ExtractFilesEvent();
+
+    /**
+     * Name of the partition, e.g. C.
+     */
+    @Label("Partition")
+    private String partition;
+
+    /**
+     * Number of files copied.
+     */
+    @Label("Files")
+    private int files;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static ExtractFilesEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        ExtractFilesEvent event = new ExtractFilesEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param partition Name of the partition, e.g. C.
+     * @param files Number of files copied.
+     */
+    public void record(String partition, int files) {
+        if (this != SHARED && shouldCommit()) {
+            this.partition = partition;
+            this.files = files;
+            commit();
+        }
+    }
+}
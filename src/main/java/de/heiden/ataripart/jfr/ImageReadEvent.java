@@ -0,0 +1,70 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Read from a hard disk image.
+ */
+@Name("de.heiden.ataripart.ImageRead")
+@Label("Image Read")
+@Category({"AtariPart", "Image"})
+@Description("Read from a hard disk image. Memory mapped reads just create a view, so the page faults happen later.")
+public class ImageReadEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final ImageReadEvent SHARED = new ImageReadEvent();
+
+    /**
+     * Absolute position in the hard disk image.
+     */
+    @Label("Offset")
+    private long offset;
+
+    /**
+     * Number of bytes requested.
+     */
+    @Label("Length")
+    @DataAmount
+    private long length;
+
+    /**
+     * Number of bytes read.
+     */
+    @Label("Bytes Read")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static ImageReadEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        ImageReadEvent event = new ImageReadEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param offset Absolute position in the hard disk image.
+     * @param length Number of bytes requested.
+     * @param bytes Number of bytes read.
+     */
+    public void record(long offset, long length, long bytes) {
+        if (this != SHARED && shouldCommit()) {
+            this.offset = offset;
+            this.length = length;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Transfer from a hard disk image to a channel.
+ */
+@Name("de.heiden.ataripart.ImageTransfer")
+@Label("Image Transfer")
+@Category({"AtariPart", "Image"})
+@Description("Transfer from a hard disk image to a channel, e.g. a partition image.")
+public class ImageTransferEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final ImageTransferEvent SHARED = new ImageTransferEvent();
+
+    /**
+     * Absolute position in the hard disk image.
+     */
+    @Label("Offset")
+    private long offset;
+
+    /**
+     * Number of bytes transferred.
+     */
+    @Label("Length")
+    @DataAmount
+    private long length;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static ImageTransferEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        ImageTransferEvent event = new ImageTransferEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param offset Absolute position in the hard disk image.
+     * @param length Number of bytes transferred.
+     */
+    public void record(long offset, long length) {
+        if (this != SHARED && shouldCommit()) {
+            this.offset = offset;
+            this.length = length;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Step of extracting a partition image, e.g. copying or verifying it.
+ */
+@Name("de.heiden.ataripart.PartitionStep")
+@Label("Partition Step")
+@Category({"AtariPart", "Extraction"})
+@Description("Step of extracting a partition image, e.g. determining the used ranges, copying or verifying.")
+public class PartitionStepEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final PartitionStepEvent SHARED = new PartitionStepEvent();
+
+    /**
+     * Name of the partition, e.g. C.
+     */
+    @Label("Partition")
+    private String partition;
+
+    /**
+     * Step, e.g. "copy".
+     */
+    @Label("Step")
+    private String step;
+
+    /**
+     * Number of bytes processed.
+     */
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static PartitionStepEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        PartitionStepEvent event = new PartitionStepEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param partition Name of the partition, e.g. C.
+     * @param step Step, e.g. "copy".
+     * @param bytes Number of bytes processed.
+     */
+    public void record(String partition, String step, long bytes) {
+        if (this != SHARED && shouldCommit()) {
+            this.partition = partition;
+            this.step = step;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
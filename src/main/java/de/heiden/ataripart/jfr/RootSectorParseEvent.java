@@ -0,0 +1,57 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of a root sector.
+ */
+@Name("de.heiden.ataripart.RootSectorParse")
+@Label("Root Sector Parse")
+@Category({"AtariPart", "Parsing"})
+public class RootSectorParseEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final RootSectorParseEvent SHARED = new RootSectorParseEvent();
+
+    /**
+     * Absolute offset of the root sector.
+     */
+    @Label("Offset")
+    private long offset;
+
+    /**
+     * Number of valid and active partitions.
+     */
+    @Label("Partitions")
+    private int partitions;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static RootSectorParseEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        RootSectorParseEvent event = new RootSectorParseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param offset Absolute offset of the root sector.
+     * @param partitions Number of valid and active partitions.
+     */
+    public void record(long offset, int partitions) {
+        if (this != SHARED && shouldCommit()) {
+            this.offset = offset;
+            this.partitions = partitions;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.heiden.ataripart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Traversal of the chain of xgm root sectors.
+ */
+@Name("de.heiden.ataripart.XgmChain")
+@Label("XGM Chain")
+@Category({"AtariPart", "Parsing"})
+public class XgmChainEvent extends Event {
+    /**
+     * Shared instance, to check whether the event is enabled. Never gets committed.
+     */
+    private static final XgmChainEvent SHARED = new XgmChainEvent();
+
+    /**
+     * Absolute offset of the first xgm root sector.
+     */
+    @Label("Offset")
+    private long offset;
+
+    /**
+     * Number of xgm root sectors.
+     */
+    @Label("Root Sectors")
+    private int rootSectors;
+
+    /**
+     * Begin a new event. If the event is disabled, the shared instance gets returned, so nothing gets allocated.
+     */
+    public static XgmChainEvent start() {
+        if (!SHARED.isEnabled()) {
+            return SHARED;
+        }
+        XgmChainEvent event = new XgmChainEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit this event, if it is enabled.
+     *
+     * @param offset Absolute offset of the first xgm root sector.
+     * @param rootSectors Number of xgm root sectors.
+     */
+    public void record(long offset, int rootSectors) {
+        if (this != SHARED && shouldCommit()) {
+            this.offset = offset;
+            this.rootSectors = rootSectors;
+            commit();
+        }
+    }
+}
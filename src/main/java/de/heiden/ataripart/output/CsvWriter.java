@@ -0,0 +1,205 @@
+package de.heiden.ataripart.output;
+
+import de.heiden.ataripart.image.BootSector;
+import de.heiden.ataripart.image.FileSystem;
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.RootSector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes CSV (RFC 4180) with a header line:
+ * One row per partition, which repeats the columns of its root sector.
+ * Root sectors without partitions get a row with empty partition columns.
+ */
+public class CsvWriter extends RecordWriter {
+    /**
+     * Header line.
+     */
+    private static final String HEADER =
+            "role,xgm,offset,cylinders,heads,sectors,size,checksum," +
+            "name,number,type,active,boot,start,relative_start,length,end," +
+            "file_system,bytes_per_sector,sectors_per_cluster,reserved_sectors,fats,root_entries,fs_sectors,sectors_per_fat,capacity," +
+            "fs_type,label,serial,boot_checksum\r\n";
+
+    /**
+     * Number of columns of a partition including its boot sector.
+     */
+    private static final int PARTITION_COLUMNS = 22;
+
+    /**
+     * Has the header been written?.
+     */
+    private boolean header;
+
+    /**
+     * Role of the current root sector.
+     */
+    private String role;
+
+    /**
+     * Current root sector.
+     */
+    private RootSector rootSector;
+
+    /**
+     * Has the current root sector at least one partition?.
+     */
+    private boolean partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param out Destination. Does not get closed.
+     */
+    public CsvWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void beginRootSector(String role, RootSector rootSector) throws IOException {
+        if (!header) {
+            append(HEADER);
+            header = true;
+        }
+        this.role = role;
+        this.rootSector = rootSector;
+        this.partitions = false;
+    }
+
+    @Override
+    public void partition(String name, Partition partition) throws IOException {
+        partitions = true;
+
+        rootSectorColumns();
+        string(name);
+        append(',');
+        append(partition.getNumber());
+        append(',');
+        string(partition.getType());
+        append(',');
+        append(partition.isActive());
+        append(',');
+        append(partition.isBoot());
+        append(',');
+        append(partition.getAbsoluteStart());
+        append(',');
+        append(partition.getStart());
+        append(',');
+        append(partition.getLength());
+        append(',');
+        append(partition.getAbsoluteEnd());
+        append(',');
+        bootSectorColumns(partition.getBootSector());
+        append("\r\n");
+    }
+
+    @Override
+    public void endRootSector() throws IOException {
+        if (!partitions) {
+            rootSectorColumns();
+            for (int i = 1; i < PARTITION_COLUMNS; i++) {
+                append(',');
+            }
+            append("\r\n");
+        }
+        rootSector = null;
+    }
+
+    /**
+     * Write the columns of the current root sector, including the trailing separator.
+     */
+    private void rootSectorColumns() throws IOException {
+        string(role);
+        append(',');
+        append(rootSector.isXGM());
+        append(',');
+        append(rootSector.getOffset());
+        append(',');
+        append(rootSector.getCylinders());
+        append(',');
+        append(rootSector.getHeads());
+        append(',');
+        append(rootSector.getSectors());
+        append(',');
+        // The size is defined by the master root sector only.
+        if (!rootSector.isXGM()) {
+            append(rootSector.getSize());
+        }
+        append(',');
+        append(rootSector.getChecksum());
+        append(',');
+    }
+
+    /**
+     * Write the columns of a boot sector, without trailing separator.
+     *
+     * @param bootSector Boot sector. May be null.
+     */
+    private void bootSectorColumns(BootSector bootSector) throws IOException {
+        if (bootSector == null) {
+            append(",,,,,,,,,,,,");
+            return;
+        }
+
+        append(bootSector.getFileSystem().name());
+        append(',');
+        append(bootSector.getBytesPerSector());
+        append(',');
+        append(bootSector.getSectorsPerCluster());
+        append(',');
+        append(bootSector.getReservedSectors());
+        append(',');
+        append(bootSector.getNumFATs());
+        append(',');
+        append(bootSector.getMaxDirectoryEntries());
+        append(',');
+        append(bootSector.getSectors());
+        append(',');
+        append(bootSector.getSectorsPerFAT());
+        append(',');
+        append(bootSector.getSectors() * bootSector.getBytesPerSector());
+        append(',');
+        // The extended fields are defined for FAT16 and FAT32 only.
+        if (bootSector.getFileSystem() != FileSystem.FAT12) {
+            string(bootSector.getType());
+            append(',');
+            string(bootSector.getLabel());
+            append(',');
+            append(bootSector.getSerial());
+        } else {
+            append(",,");
+        }
+        append(',');
+        append(bootSector.getChecksum());
+    }
+
+    /**
+     * Write a string as CSV field. Gets quoted, if needed.
+     *
+     * @param value String.
+     */
+    private void string(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+
+        if (quote) {
+            append('"');
+        }
+        for (int i = 0; i < value.length(); ) {
+            int c = value.codePointAt(i);
+            i += Character.charCount(c);
+            if (c == '"') {
+                append('"');
+            }
+            appendUtf8(c);
+        }
+        if (quote) {
+            append('"');
+        }
+    }
+}
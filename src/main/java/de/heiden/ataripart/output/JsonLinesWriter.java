@@ -0,0 +1,170 @@
+package de.heiden.ataripart.output;
+
+import de.heiden.ataripart.image.BootSector;
+import de.heiden.ataripart.image.FileSystem;
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.RootSector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON Lines: One JSON object per root sector, with its partitions as nested array.
+ */
+public class JsonLinesWriter extends RecordWriter {
+    /**
+     * Hex digits for escaping.
+     */
+    private static final String HEX = "0123456789abcdef";
+
+    /**
+     * Has the current root sector at least one partition?.
+     */
+    private boolean partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param out Destination. Does not get closed.
+     */
+    public JsonLinesWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void beginRootSector(String role, RootSector rootSector) throws IOException {
+        append("{\"role\":");
+        string(role);
+        append(",\"xgm\":");
+        append(rootSector.isXGM());
+        append(",\"offset\":");
+        append(rootSector.getOffset());
+        append(",\"cylinders\":");
+        append(rootSector.getCylinders());
+        append(",\"heads\":");
+        append(rootSector.getHeads());
+        append(",\"sectors\":");
+        append(rootSector.getSectors());
+        // The size is defined by the master root sector only.
+        append(",\"size\":");
+        if (rootSector.isXGM()) {
+            append("null");
+        } else {
+            append(rootSector.getSize());
+        }
+        append(",\"checksum\":");
+        append(rootSector.getChecksum());
+        append(",\"partitions\":[");
+        partitions = false;
+    }
+
+    @Override
+    public void partition(String name, Partition partition) throws IOException {
+        if (partitions) {
+            append(',');
+        }
+        partitions = true;
+
+        append("{\"name\":");
+        string(name);
+        append(",\"number\":");
+        append(partition.getNumber());
+        append(",\"type\":");
+        string(partition.getType());
+        append(",\"active\":");
+        append(partition.isActive());
+        append(",\"boot\":");
+        append(partition.isBoot());
+        append(",\"start\":");
+        append(partition.getAbsoluteStart());
+        append(",\"relativeStart\":");
+        append(partition.getStart());
+        append(",\"length\":");
+        append(partition.getLength());
+        append(",\"end\":");
+        append(partition.getAbsoluteEnd());
+        append(",\"bootSector\":");
+        bootSector(partition.getBootSector());
+        append('}');
+    }
+
+    @Override
+    public void endRootSector() throws IOException {
+        append("]}\n");
+    }
+
+    /**
+     * Write a boot sector as JSON object.
+     *
+     * @param bootSector Boot sector. May be null.
+     */
+    private void bootSector(BootSector bootSector) throws IOException {
+        if (bootSector == null) {
+            append("null");
+            return;
+        }
+
+        append("{\"fileSystem\":");
+        string(bootSector.getFileSystem().name());
+        append(",\"bytesPerSector\":");
+        append(bootSector.getBytesPerSector());
+        append(",\"sectorsPerCluster\":");
+        append(bootSector.getSectorsPerCluster());
+        append(",\"reservedSectors\":");
+        append(bootSector.getReservedSectors());
+        append(",\"fats\":");
+        append(bootSector.getNumFATs());
+        append(",\"rootEntries\":");
+        append(bootSector.getMaxDirectoryEntries());
+        append(",\"sectors\":");
+        append(bootSector.getSectors());
+        append(",\"sectorsPerFat\":");
+        append(bootSector.getSectorsPerFAT());
+        append(",\"capacity\":");
+        append(bootSector.getSectors() * bootSector.getBytesPerSector());
+        // The extended fields are defined for FAT16 and FAT32 only.
+        boolean extended = bootSector.getFileSystem() != FileSystem.FAT12;
+        append(",\"type\":");
+        string(extended ? bootSector.getType() : null);
+        append(",\"label\":");
+        string(extended ? bootSector.getLabel() : null);
+        append(",\"serial\":");
+        if (extended) {
+            append(bootSector.getSerial());
+        } else {
+            append("null");
+        }
+        append(",\"checksum\":");
+        append(bootSector.getChecksum());
+        append('}');
+    }
+
+    /**
+     * Write a string as JSON string.
+     *
+     * @param value String. May be null.
+     */
+    private void string(String value) throws IOException {
+        if (value == null) {
+            append("null");
+            return;
+        }
+
+        append('"');
+        for (int i = 0; i < value.length(); ) {
+            int c = value.codePointAt(i);
+            i += Character.charCount(c);
+            if (c == '"' || c == '\\') {
+                append('\\');
+                append((char) c);
+            } else if (c < 0x20) {
+                append("\\u00");
+                append(HEX.charAt(c >> 4));
+                append(HEX.charAt(c & 0xF));
+            } else {
+                appendUtf8(c);
+            }
+        }
+        append('"');
+    }
+}
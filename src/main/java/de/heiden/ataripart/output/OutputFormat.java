@@ -0,0 +1,21 @@
+package de.heiden.ataripart.output;
+
+/**
+ * Output formats of the list and analyze commands.
+ */
+public enum OutputFormat {
+    /**
+     * Human readable text.
+     */
+    TEXT,
+
+    /**
+     * JSON Lines: One JSON object per root sector, including its partitions.
+     */
+    JSONL,
+
+    /**
+     * CSV with a header line: One row per partition, including the columns of its root sector.
+     */
+    CSV
+}
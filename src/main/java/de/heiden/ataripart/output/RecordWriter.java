@@ -0,0 +1,191 @@
+package de.heiden.ataripart.output;
+
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.RootSector;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming writer for machine readable output of root sectors and their partitions.
+ * <p>
+ * The fields are serialized directly into a byte buffer, which gets written only when it is full.
+ * So neither intermediate strings nor a flush per line are needed.
+ * Not thread safe.
+ */
+public abstract class RecordWriter implements Flushable, Closeable {
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Destination.
+     */
+    private final OutputStream out;
+
+    /**
+     * Output buffer.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Number of bytes in the output buffer.
+     */
+    private int length;
+
+    /**
+     * Constructor.
+     *
+     * @param out Destination. Does not get closed.
+     */
+    protected RecordWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Create writer for a machine readable output format.
+     *
+     * @param format Output format.
+     * @param out Destination. Does not get closed.
+     */
+    public static RecordWriter create(OutputFormat format, OutputStream out) {
+        switch (format) {
+            case JSONL:
+                return new JsonLinesWriter(out);
+            case CSV:
+                return new CsvWriter(out);
+            default:
+                throw new IllegalArgumentException("Output format " + format + " is not machine readable.");
+        }
+    }
+
+    /**
+     * Start a root sector. Has to be followed by its partitions and {@link #endRootSector()}.
+     *
+     * @param role Role of the root sector, e.g. "master", "xgm" or "candidate".
+     * @param rootSector Root sector.
+     */
+    public abstract void beginRootSector(String role, RootSector rootSector) throws IOException;
+
+    /**
+     * Write a partition of the current root sector.
+     *
+     * @param name Name of partition, e.g. 0, 1, 2 or C, D, E etc.
+     * @param partition Partition.
+     */
+    public abstract void partition(String name, Partition partition) throws IOException;
+
+    /**
+     * End the current root sector.
+     */
+    public abstract void endRootSector() throws IOException;
+
+    /**
+     * Write the buffered output.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (length > 0) {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the buffered output. Does not close the destination.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    //
+    // Serialization
+    //
+
+    /**
+     * Append an ASCII char.
+     *
+     * @param c Char.
+     */
+    protected void append(char c) throws IOException {
+        if (length == buffer.length) {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+        buffer[length++] = (byte) c;
+    }
+
+    /**
+     * Append an ASCII string, e.g. a field name.
+     *
+     * @param ascii String with ASCII chars only.
+     */
+    protected void append(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            append(ascii.charAt(i));
+        }
+    }
+
+    /**
+     * Append a boolean.
+     *
+     * @param value Boolean.
+     */
+    protected void append(boolean value) throws IOException {
+        append(value ? "true" : "false");
+    }
+
+    /**
+     * Append a number in decimal.
+     *
+     * @param number Number.
+     */
+    protected void append(long number) throws IOException {
+        if (number == 0) {
+            append('0');
+            return;
+        }
+        if (number < 0) {
+            append('-');
+        } else {
+            // Work with negative numbers to support Long.MIN_VALUE.
+            number = -number;
+        }
+        long divisor = -1;
+        while (divisor >= -Long.MAX_VALUE / 10 && number <= divisor * 10) {
+            divisor *= 10;
+        }
+        for (; divisor != 0; divisor /= 10) {
+            append((char) ('0' + number / divisor));
+            number %= divisor;
+        }
+    }
+
+    /**
+     * Append a unicode code point in UTF-8.
+     *
+     * @param codePoint Code point.
+     */
+    protected void appendUtf8(int codePoint) throws IOException {
+        if (codePoint < 0x80) {
+            append((char) codePoint);
+        } else if (codePoint < 0x800) {
+            append((char) (0xC0 | codePoint >> 6));
+            append((char) (0x80 | codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            append((char) (0xE0 | codePoint >> 12));
+            append((char) (0x80 | codePoint >> 6 & 0x3F));
+            append((char) (0x80 | codePoint & 0x3F));
+        } else {
+            append((char) (0xF0 | codePoint >> 18));
+            append((char) (0x80 | codePoint >> 12 & 0x3F));
+            append((char) (0x80 | codePoint >> 6 & 0x3F));
+            append((char) (0x80 | codePoint & 0x3F));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.ImageScanner;
+import de.heiden.ataripart.image.ScanCheckpoint;
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import de.heiden.ataripart.output.OutputFormat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link AnalyzeImage}.
+ */
+class AnalyzeImageTest {
+    /**
+     * Buffer size of the scans. Small, to get many chunks.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Temporary directory for the image and its sidecar files.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Hard disk image.
+     */
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        image = dir.resolve("disk.img");
+        new ImageGenerator(64 * 1024 * 1024, 3, 42).generate(image);
+    }
+
+    /**
+     * A scan, which has been stopped in the middle of the image and gets resumed, reports the same root sectors
+     * as an uninterrupted scan.
+     */
+    @Test
+    void resumedScanEqualsUninterruptedScan() throws IOException {
+        String expected = analyze(options());
+
+        try (ImageReader reader = ImageReader.open(image, false)) {
+            ImageScanner scanner = new ImageScanner(reader, 2, BUFFER_SIZE, 0);
+            ScanCheckpoint checkpoint = ScanCheckpoint.open(reader, false, BUFFER_SIZE);
+            long size = reader.size();
+            scanner.scan(0, checkpoint::found, null, position -> {
+                try {
+                    checkpoint.scanned(position);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (position >= size / 2) {
+                    scanner.stop();
+                }
+            });
+            assertTrue(scanner.isStopped());
+            checkpoint.save();
+
+            ScanCheckpoint resumed = ScanCheckpoint.open(reader, true, BUFFER_SIZE);
+            assertTrue(resumed.getStart() > 0 && resumed.getStart() < size, "Start " + resumed.getStart());
+            assertFalse(resumed.getHits().isEmpty());
+        }
+
+        ScanOptions options = options();
+        options.setResume(true);
+        assertEquals(expected, analyze(options));
+        assertFalse(Files.exists(ScanCheckpoint.checkpointFile(image)));
+    }
+
+    /**
+     * Guided scans, which skip the interiors of partitions, find the same root sectors as a full scan.
+     */
+    @Test
+    void guidedScanEqualsFullScan() throws IOException {
+        String expected = analyze(options());
+
+        ScanOptions guided = options();
+        guided.setGuided(true);
+        assertEquals(expected, analyze(guided));
+
+        ScanOptions probe = options();
+        probe.setProbe(true);
+        assertEquals(expected, analyze(probe));
+    }
+
+    /**
+     * Guided scans do not search the interiors of partitions, e.g. for a copy of the root sector.
+     */
+    @Test
+    void guidedScanSkipsInteriorsOfPartitions() throws IOException {
+        long copy = 8 * BUFFER_SIZE + 2048;
+        ByteBuffer sector = ByteBuffer.allocate(512);
+        try (FileChannel channel = FileChannel.open(image, READ, WRITE)) {
+            channel.read(sector, 0);
+            sector.flip();
+            channel.write(sector, copy);
+        }
+        assertTrue(analyze(options()).contains("\"offset\":" + copy + ","));
+
+        ScanOptions guided = options();
+        guided.setGuided(true);
+        assertFalse(analyze(guided).contains("\"offset\":" + copy + ","));
+    }
+
+    /**
+     * Prioritized scans without time limit find the same root sectors as a full scan, in a different order.
+     */
+    @Test
+    void prioritizedScanFindsRootSectorsOfFullScan() throws IOException {
+        ScanOptions prioritized = options();
+        prioritized.setPrioritized(true);
+        assertEquals(lines(analyze(options())), lines(analyze(prioritized)));
+    }
+
+    /**
+     * Scans with read-ahead report the same root sectors in the same order as scans without.
+     */
+    @Test
+    void readAheadDoesNotChangeResults() throws IOException {
+        String expected = analyze(options());
+        for (int threads : new int[]{1, 3}) {
+            for (int readAhead : new int[]{0, 2, 4}) {
+                ScanOptions options = options();
+                options.setThreads(threads);
+                options.setReadAhead(readAhead);
+                assertEquals(expected, analyze(options), threads + " threads, read-ahead " + readAhead);
+            }
+        }
+    }
+
+    /**
+     * Default options of the scans.
+     */
+    private static ScanOptions options() {
+        ScanOptions result = new ScanOptions();
+        result.setThreads(2);
+        result.setBufferSize(BUFFER_SIZE);
+        return result;
+    }
+
+    /**
+     * Sorted lines.
+     *
+     * @param output Output.
+     */
+    private static List<String> lines(String output) {
+        List<String> result = new ArrayList<>(Arrays.asList(output.split("\n")));
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Analyze the image.
+     *
+     * @param options Options of the scan.
+     * @return Output as JSON lines.
+     */
+    private String analyze(ScanOptions options) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(result, false, UTF_8.name())) {
+            new AnalyzeImage(out).analyze(image, false, OutputFormat.JSONL, false, options);
+        }
+        return result.toString(UTF_8.name());
+    }
+}
@@ -0,0 +1,296 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import de.heiden.ataripart.image.fat.FatFileSystem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ExtractPartitions}.
+ */
+class ExtractPartitionsTest {
+    /**
+     * Line of the manifest, e.g. "SHA256 (c.img) = ...".
+     */
+    private static final Pattern MANIFEST_LINE = Pattern.compile("(\\w+) \\((.+)\\) = (\\p{XDigit}+)");
+
+    /**
+     * Temporary directory for the image and the extracted partitions.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Hard disk image.
+     */
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        image = dir.resolve("disk.img");
+        ImageGenerator generator = new ImageGenerator(32 * 1024 * 1024, 2, 42);
+        generator.generate(image);
+    }
+
+    /**
+     * The manifest contains the SHA-256 and CRC32C of each partition image.
+     */
+    @Test
+    void manifestMatchesReferenceDigests() throws IOException, NoSuchAlgorithmException {
+        ExtractOptions options = new ExtractOptions();
+        options.setDigest(true);
+        Path destination = extract("plain", options);
+
+        Map<String, Map<String, String>> manifest = manifest(destination);
+        assertEquals(2, manifest.size());
+        for (String name : manifest.keySet()) {
+            assertEquals(reference(Files.readAllBytes(destination.resolve(name))), manifest.get(name), name);
+        }
+    }
+
+    /**
+     * The manifest of compressed and verified partition images contains the digests of the uncompressed images.
+     */
+    @Test
+    void manifestOfCompressedImagesMatchesReferenceDigests() throws IOException, NoSuchAlgorithmException {
+        ExtractOptions options = new ExtractOptions();
+        options.setCompress(true);
+        options.setVerify(true);
+        Path destination = extract("compressed", options);
+
+        Map<String, Map<String, String>> manifest = manifest(destination);
+        assertEquals(2, manifest.size());
+        for (String name : manifest.keySet()) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(destination.resolve(name + ".gz")))) {
+                assertEquals(reference(in.readAllBytes()), manifest.get(name), name);
+            }
+        }
+    }
+
+    /**
+     * Verification fails, if the partition image differs from its digests.
+     */
+    @Test
+    void verifyFailsOnCorruptedImage() throws IOException {
+        ExtractOptions options = new ExtractOptions();
+        options.setDigest(true);
+        Path destination = extract("corrupted", options);
+        Path partition = destination.resolve("c.img");
+        Map<String, String> expected = manifest(destination).get("c.img");
+
+        ExecutorService digester = Executors.newCachedThreadPool();
+        try {
+            ExtractPartitions.verifyDigests(partition, false, expected, digester);
+
+            try (FileChannel channel = FileChannel.open(partition, WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xA5}), Files.size(partition) / 2);
+            }
+            assertThrows(IOException.class, () -> ExtractPartitions.verifyDigests(partition, false, expected, digester));
+        } finally {
+            digester.shutdownNow();
+        }
+    }
+
+    /**
+     * Partitions extracted concurrently are the same as those extracted one after the other.
+     */
+    @Test
+    void concurrentExtractionEqualsSequential() throws IOException {
+        Path expected = extract("sequential", new ExtractOptions());
+        for (int jobs : new int[]{0, 2}) {
+            ExtractOptions options = new ExtractOptions();
+            options.setJobs(jobs);
+            assertSameFiles(expected, extract("jobs" + jobs, options));
+        }
+    }
+
+    /**
+     * Sparse partition images have the same contents and length as dense ones, also with converted boot sectors.
+     */
+    @Test
+    void sparseEqualsDense() throws IOException {
+        for (boolean convert : new boolean[]{false, true}) {
+            ExtractOptions options = new ExtractOptions();
+            options.setConvertBootSectors(convert);
+            Path expected = extract("dense" + convert, options);
+            options.setSparse(true);
+            assertSameFiles(expected, extract("sparse" + convert, options));
+        }
+    }
+
+    /**
+     * Partition images with used clusters only equal dense ones, except free clusters being zero.
+     */
+    @Test
+    void usedClustersEqualDense() throws IOException {
+        Path dense = extract("dense", new ExtractOptions());
+        ExtractOptions options = new ExtractOptions();
+        options.setUsed(true);
+        Path used = extract("used", options);
+
+        int noise = 0;
+        try (ImageReader reader = ImageReader.open(image, false)) {
+            List<Partition> partitions = reader.readRootSectors().get(0).getRealPartitions();
+            assertEquals(2, partitions.size());
+            for (int i = 0; i < partitions.size(); i++) {
+                Partition partition = partitions.get(i);
+                String name = (char) ('c' + i) + ".img";
+                byte[] expected = Files.readAllBytes(dense.resolve(name));
+                byte[] actual = Files.readAllBytes(used.resolve(name));
+                assertEquals(expected.length, actual.length, name);
+
+                // Boot sector, FATs and root directory.
+                FatFileSystem fileSystem = new FatFileSystem(reader, partition);
+                int dataStart = (int) (fileSystem.getDataOffset() - partition.getAbsoluteStart());
+                assertArrayEquals(Arrays.copyOf(expected, dataStart), Arrays.copyOf(actual, dataStart), name);
+
+                int clusterSize = fileSystem.getClusterSize();
+                for (int cluster = 2; cluster < fileSystem.getClusters() + 2; cluster++) {
+                    int start = (int) (fileSystem.getClusterOffset(cluster) - partition.getAbsoluteStart());
+                    int end = Math.min(start + clusterSize, expected.length);
+                    byte[] expectedCluster = Arrays.copyOfRange(expected, start, end);
+                    if (fileSystem.isAllocated(cluster)) {
+                        assertArrayEquals(expectedCluster, Arrays.copyOfRange(actual, start, end), name + " cluster " + cluster);
+                    } else {
+                        assertArrayEquals(new byte[end - start], Arrays.copyOfRange(actual, start, end), name + " cluster " + cluster);
+                        if (!Arrays.equals(new byte[end - start], expectedCluster)) {
+                            noise++;
+                        }
+                    }
+                }
+            }
+        }
+        // Otherwise the free clusters would be zero anyway.
+        assertTrue(noise > 0, "No free cluster with noise.");
+    }
+
+    /**
+     * Compressed partition images decompress to the dense ones, also with converted boot sectors and used clusters only.
+     */
+    @Test
+    void compressedDecompressesToDense() throws IOException {
+        for (boolean variant : new boolean[]{false, true}) {
+            ExtractOptions options = new ExtractOptions();
+            options.setConvertBootSectors(variant);
+            options.setUsed(variant);
+            Path expected = extract("dense" + variant, options);
+            options.setCompress(true);
+            options.setJobs(2);
+            Path actual = extract("compressed" + variant, options);
+
+            for (String name : new String[]{"c.img", "d.img"}) {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(actual.resolve(name + ".gz")))) {
+                    assertArrayEquals(Files.readAllBytes(expected.resolve(name)), in.readAllBytes(), name);
+                }
+                assertFalse(Files.exists(actual.resolve(name)));
+            }
+        }
+    }
+
+    /**
+     * Extract all partitions of the image.
+     *
+     * @param name Name of the destination directory.
+     * @param options Options of the extraction.
+     * @return Destination directory.
+     */
+    private Path extract(String name, ExtractOptions options) throws IOException {
+        Path destination = dir.resolve(name);
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), false, UTF_8.name());
+        new ExtractPartitions(out).extract(image, false, destination, false, options);
+        return destination;
+    }
+
+    /**
+     * Assert that two directories contain the same files.
+     *
+     * @param expected Directory with the expected files.
+     * @param actual Directory with the actual files.
+     */
+    private static void assertSameFiles(Path expected, Path actual) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(expected)) {
+            files = list.map(Path::getFileName).sorted().collect(Collectors.toList());
+        }
+        try (Stream<Path> list = Files.list(actual)) {
+            assertEquals(files, list.map(Path::getFileName).sorted().collect(Collectors.toList()));
+        }
+        assertFalse(files.isEmpty());
+        for (Path file : files) {
+            assertArrayEquals(Files.readAllBytes(expected.resolve(file)), Files.readAllBytes(actual.resolve(file)), file.toString());
+        }
+    }
+
+    /**
+     * Read the manifest.
+     *
+     * @param destination Destination directory.
+     * @return Digests by name by partition image name.
+     */
+    private static Map<String, Map<String, String>> manifest(Path destination) throws IOException {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(destination.resolve(ExtractPartitions.MANIFEST), UTF_8)) {
+            Matcher matcher = MANIFEST_LINE.matcher(line);
+            if (!matcher.matches()) {
+                throw new IOException("Invalid manifest line " + line + ".");
+            }
+            result.computeIfAbsent(matcher.group(2), name -> new HashMap<>()).put(matcher.group(1), matcher.group(3));
+        }
+        return result;
+    }
+
+    /**
+     * Digests computed with {@link MessageDigest} and {@link CRC32C}.
+     *
+     * @param data Data.
+     * @return Digests by name, as in the manifest.
+     */
+    private static Map<String, String> reference(byte[] data) throws NoSuchAlgorithmException {
+        StringBuilder sha256 = new StringBuilder(64);
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            sha256.append(String.format("%02x", b & 0xFF));
+        }
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(data, 0, data.length);
+
+        Map<String, String> result = new HashMap<>();
+        result.put("SHA256", sha256.toString());
+        result.put("CRC32C", String.format("%08x", crc32c.getValue()));
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.commands.ProcessImages.Action;
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import de.heiden.ataripart.output.OutputFormat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ProcessImages}.
+ */
+class ProcessImagesTest {
+    /**
+     * Temporary directory for the image and the results.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Hard disk image.
+     */
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        image = dir.resolve("disk.img");
+        new ImageGenerator(32 * 1024 * 1024, 2, 42).generate(image);
+    }
+
+    /**
+     * List writes the requested output format.
+     */
+    @Test
+    void listUsesOutputOptions() throws IOException {
+        OutputOptions output = new OutputOptions();
+        output.setFormat(OutputFormat.CSV);
+        Path destination = process(Action.LIST, output, new ExtractOptions());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new ListPartitions(new PrintStream(expected, true, UTF_8.name())).list(image, false, false, OutputFormat.CSV);
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(destination.resolve("disk.img.csv")));
+    }
+
+    /**
+     * Partitions applies the extract options to each image.
+     */
+    @Test
+    void partitionsUsesExtractOptions() throws IOException {
+        ExtractOptions options = new ExtractOptions();
+        options.setDigest(true);
+        options.setCompress(true);
+        Path destination = process(Action.PARTITIONS, new OutputOptions(), options);
+
+        Path partitions = destination.resolve("disk.img");
+        assertTrue(Files.exists(partitions.resolve("c.img.gz")));
+        assertTrue(Files.exists(partitions.resolve("d.img.gz")));
+        assertEquals(4, Files.readAllLines(partitions.resolve(ExtractPartitions.MANIFEST), UTF_8).size());
+    }
+
+    /**
+     * Process the image.
+     *
+     * @param action Command to run.
+     * @param output Output options.
+     * @param options Extract options.
+     * @return Destination directory.
+     */
+    private Path process(Action action, OutputOptions output, ExtractOptions options) throws IOException {
+        Path destination = dir.resolve("batch");
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), false, UTF_8.name());
+        new ProcessImages(out).process(Collections.singletonList(image.toString()), action, destination, false, output, options, 1, 1);
+        return destination;
+    }
+}
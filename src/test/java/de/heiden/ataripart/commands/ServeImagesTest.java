@@ -0,0 +1,197 @@
+package de.heiden.ataripart.commands;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ServeImages}.
+ */
+class ServeImagesTest {
+    /**
+     * Line of the output of the server, when it listens, e.g. "Listening on localhost/127.0.0.1:7437".
+     */
+    private static final Pattern LISTENING = Pattern.compile("Listening on .*:(\\d+)");
+
+    /**
+     * Temporary directory for the token files.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * A missing token file gets created with a random token, readable by its owner only, and gets reused afterwards.
+     */
+    @Test
+    void tokenGetsCreatedOnceForOwnerOnly() throws IOException {
+        Path file = dir.resolve(".ataripart").resolve("serve.token");
+        String token = ServeImages.token(file);
+
+        assertEquals(64, token.length());
+        assertEquals(token, ServeImages.token(file));
+        assertNotEquals(token, ServeImages.token(dir.resolve("other.token")));
+        if (Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        }
+    }
+
+    /**
+     * Requests without the token or with a wrong token get rejected.
+     */
+    @Test
+    void requestWithoutTokenGetsRejected() throws Exception {
+        Path image = image("disk.img", 1);
+        try (Server server = new Server(2)) {
+            assertEquals("Invalid token.\n", server.request("list " + image));
+            assertEquals("Invalid token.\n", server.request("0123", "list " + image));
+            assertTrue(server.log().contains("Rejected request from "), server.log());
+            assertTrue(server.request(server.token, "list " + image).startsWith("Root sector"));
+        }
+    }
+
+    /**
+     * The least recently used image gets evicted from the cache.
+     */
+    @Test
+    void cacheEvictsLeastRecentlyUsedImage() throws Exception {
+        Path a = image("a.img", 1);
+        Path b = image("b.img", 2);
+        Path c = image("c.img", 3);
+        try (Server server = new Server(2)) {
+            for (Path image : new Path[]{a, b, a, c, a, b}) {
+                assertTrue(server.request(server.token, "list " + image).startsWith("Root sector"));
+            }
+            // a, b miss, a hits, c misses and evicts b, a hits, b misses and evicts c.
+            assertEquals("2 images, 2 hits, 4 misses\n", server.request(server.token, "cache"));
+        }
+    }
+
+    /**
+     * Generate a hard disk image.
+     *
+     * @param name File name.
+     * @param seed Seed of the contents.
+     */
+    private Path image(String name, long seed) throws IOException {
+        Path result = dir.resolve(name);
+        new ImageGenerator(16 * 1024 * 1024, 1, seed).generate(result);
+        return result.toAbsolutePath();
+    }
+
+    /**
+     * Server running in a background thread on any free port.
+     */
+    private class Server implements AutoCloseable {
+        /**
+         * Output of the server.
+         */
+        private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        /**
+         * Thread of the server.
+         */
+        private final Thread thread;
+
+        /**
+         * Failure of the server. Null, if none.
+         */
+        private volatile Exception failure;
+
+        /**
+         * Token.
+         */
+        private final String token;
+
+        /**
+         * Port.
+         */
+        private final int port;
+
+        /**
+         * Start the server and wait until it listens.
+         *
+         * @param cacheSize Maximum number of cached images.
+         */
+        private Server(int cacheSize) throws Exception {
+            Path tokenFile = dir.resolve("serve.token");
+            token = ServeImages.token(tokenFile);
+            PrintStream out = new PrintStream(log, true, UTF_8.name());
+            thread = new Thread(() -> {
+                try {
+                    new ServeImages(out).serve(0, false, cacheSize, 2, tokenFile);
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }, "serve");
+            thread.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            Matcher matcher;
+            while (!(matcher = LISTENING.matcher(log())).find()) {
+                if (!thread.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Server did not start: " + log(), failure);
+                }
+                Thread.sleep(10);
+            }
+            port = Integer.parseInt(matcher.group(1));
+        }
+
+        /**
+         * Output of the server so far.
+         */
+        private String log() throws IOException {
+            return log.toString(UTF_8.name());
+        }
+
+        /**
+         * Send a request.
+         *
+         * @param lines Lines of the request.
+         * @return Response.
+         */
+        private String request(String... lines) throws IOException {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                OutputStream out = socket.getOutputStream();
+                for (String line : lines) {
+                    out.write((line + "\n").getBytes(UTF_8));
+                }
+                out.flush();
+                return new String(socket.getInputStream().readAllBytes(), UTF_8).replace("\r\n", "\n");
+            }
+        }
+
+        /**
+         * Shutdown the server and wait for it.
+         */
+        @Override
+        public void close() throws Exception {
+            request(token, "shutdown");
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(thread.isAlive(), "Server did not stop.");
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
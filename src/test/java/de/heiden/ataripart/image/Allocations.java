@@ -0,0 +1,61 @@
+package de.heiden.ataripart.image;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Assertions on the memory allocated by the current thread.
+ */
+final class Allocations {
+    /**
+     * Allowed noise of the measurement in bytes.
+     */
+    private static final long NOISE = 1024;
+
+    /**
+     * Utility class.
+     */
+    private Allocations() {
+    }
+
+    /**
+     * Assert that a large workload allocates no more than a small one, e.g. nothing per sector or per read.
+     * Skips the test, if the JVM cannot measure the allocations of threads.
+     * The workloads should have been run before, so they are compiled.
+     *
+     * @param small Small workload.
+     * @param large Large workload.
+     * @param description Description of the workloads for the failure message, e.g. "reads".
+     */
+    static void assertConstant(Workload small, Workload large, String description) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long id = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(id);
+        small.run();
+        long middle = threads.getThreadAllocatedBytes(id);
+        large.run();
+        long end = threads.getThreadAllocatedBytes(id);
+
+        long perSmall = middle - start;
+        long perLarge = end - middle;
+        assertTrue(perLarge - perSmall < NOISE,
+                "Large " + description + " allocated " + perLarge + " bytes, small " + description + " " + perSmall + " bytes.");
+    }
+
+    /**
+     * Workload to measure.
+     */
+    @FunctionalInterface
+    interface Workload {
+        /**
+         * Run the workload.
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,98 @@
+package de.heiden.ataripart.image;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Tests for {@link ImageReader}.
+ */
+class ImageReaderTest {
+    /**
+     * Number of reads of the long run.
+     */
+    private static final int READS = 10000;
+
+    /**
+     * Temporary directory for the image.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Without a flight recording, reads allocate no JFR events.
+     */
+    @Test
+    void readAllocatesNothingWithoutRecording() throws IOException {
+        Path file = dir.resolve("disk.img");
+        Files.write(file, new byte[64 * 1024]);
+        try (ImageReader image = ImageReader.open(file, false)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+            read(image, buffer, READS);
+
+            Allocations.assertConstant(() -> read(image, buffer, 1), () -> read(image, buffer, READS), "reads");
+        }
+    }
+
+    /**
+     * Concurrent reads of a memory mapped image return its contents.
+     */
+    @Test
+    void concurrentMappedReadsReturnContents() throws Exception {
+        byte[] bytes = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        Path file = dir.resolve("random.img");
+        Files.write(file, bytes);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (ImageReader image = ImageReader.open(file, true)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long seed = t;
+                tasks.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 1000; i++) {
+                        int position = random.nextInt(bytes.length);
+                        int length = random.nextInt(64 * 1024);
+                        ByteBuffer view = image.read(position, length, null);
+                        byte[] actual = new byte[view.remaining()];
+                        view.get(actual);
+                        assertArrayEquals(Arrays.copyOfRange(bytes, position, Math.min(position + length, bytes.length)), actual);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read sectors.
+     *
+     * @param image Hard disk image.
+     * @param buffer Buffer for a sector.
+     * @param reads Number of reads.
+     */
+    private static void read(ImageReader image, ByteBuffer buffer, int reads) throws IOException {
+        for (int i = 0; i < reads; i++) {
+            image.read((i % 128) * 512L, buffer);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.heiden.ataripart.image;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link ImageScanner}.
+ */
+class ImageScannerTest {
+    /**
+     * Number of sectors of the small chunk.
+     */
+    private static final int SMALL = 128;
+
+    /**
+     * Number of sectors of the large chunk.
+     */
+    private static final int LARGE = ImageScanner.CHUNK_SIZE / 512;
+
+    /**
+     * Temporary directory for the image.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Image with random noise only.
+     */
+    private ImageReader image;
+
+    /**
+     * Contents of the image.
+     */
+    private ByteBuffer noise;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        byte[] bytes = new byte[ImageScanner.CHUNK_SIZE];
+        new Random(42).nextBytes(bytes);
+        Path file = dir.resolve("noise.img");
+        Files.write(file, bytes);
+
+        image = ImageReader.open(file, false);
+        noise = ByteBuffer.allocateDirect(bytes.length);
+        noise.put(bytes).flip();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        image.close();
+    }
+
+    /**
+     * The scan of a chunk allocates a constant amount, independent of the number of its sectors.
+     */
+    @Test
+    void scanBufferAllocatesNothingPerSector() throws IOException {
+        ImageScanner scanner = new ImageScanner(image, 1);
+        ByteBuffer small = chunk(SMALL);
+        ByteBuffer large = chunk(LARGE);
+        // Get the scan loop compiled.
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, scanner.scanBuffer(0, large, null).size());
+        }
+
+        Allocations.assertConstant(() -> scanner.scanBuffer(0, small, null), () -> scanner.scanBuffer(0, large, null), "scans");
+    }
+
+    /**
+     * Chunk of the noise.
+     *
+     * @param sectors Number of sectors.
+     */
+    private ByteBuffer chunk(int sectors) {
+        ByteBuffer result = noise.duplicate();
+        result.limit(sectors * 512);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package de.heiden.ataripart.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link IntUtils}.
+ */
+class IntUtilsTest {
+    /**
+     * Size of the test data. Large enough for several folds of the lanes.
+     */
+    private static final int SIZE = 1024 * 1024;
+
+    /**
+     * The word parallel checksum equals the word by word checksum for any buffer, byte order, start and length.
+     */
+    @Test
+    void checksumInt16EqualsWordByWord() {
+        Random random = new Random(42);
+        byte[] data = new byte[SIZE];
+        random.nextBytes(data);
+
+        int[] starts = {0, 1, 2, 3, 7, 8, 511, 4096 + 5};
+        int[] lengths = {0, 2, 6, 8, 10, 14, 510, 512, 4094, 0x20000 - 2, 0x20000, 0x20000 + 6, 3 * 0x20000 + 42, SIZE - 8192};
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer buffer = buffer(data, direct, order);
+                for (int start : starts) {
+                    for (int length : lengths) {
+                        assertChecksum(buffer, start, length);
+                    }
+                }
+                for (int i = 0; i < 200; i++) {
+                    int start = random.nextInt(4096);
+                    int length = 2 * random.nextInt((SIZE - start) / 2);
+                    assertChecksum(buffer, start, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lanes do not overflow for the largest possible words.
+     */
+    @Test
+    void checksumInt16DoesNotOverflow() {
+        byte[] data = new byte[SIZE];
+        Arrays.fill(data, (byte) 0xFF);
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer buffer = buffer(data, direct, ByteOrder.BIG_ENDIAN);
+            assertChecksum(buffer, 0, SIZE);
+            assertChecksum(buffer, 3, SIZE - 10);
+        }
+    }
+
+    /**
+     * Assert that both checksum implementations agree.
+     *
+     * @param buffer Data.
+     * @param start Index to start at.
+     * @param length Number of bytes.
+     */
+    private static void assertChecksum(ByteBuffer buffer, int start, int length) {
+        assertEquals(IntUtils.checksumInt16Words(buffer, start, length), IntUtils.checksumInt16(buffer, start, length),
+                (buffer.isDirect() ? "Direct " : "Heap ") + buffer.order() + " buffer, start " + start + ", length " + length);
+    }
+
+    /**
+     * Buffer with the given data.
+     *
+     * @param data Data.
+     * @param direct Direct buffer?.
+     * @param order Byte order.
+     */
+    private static ByteBuffer buffer(byte[] data, boolean direct, ByteOrder order) {
+        ByteBuffer result = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        result.put(data).clear();
+        return result.order(order);
+    }
+}
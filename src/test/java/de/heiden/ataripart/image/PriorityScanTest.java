@@ -0,0 +1,88 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PriorityScan}.
+ */
+class PriorityScanTest {
+    /**
+     * Buffer size of the scans. Small, to get many chunks.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Temporary directory for the image.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Hard disk image.
+     */
+    private ImageReader image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path file = dir.resolve("disk.img");
+        new ImageGenerator(64 * 1024 * 1024, 3, 42).generate(file);
+        image = ImageReader.open(file, false);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        image.close();
+    }
+
+    /**
+     * Without time limit, the root sectors of a full scan are found, each once,
+     * the master root sector and its backups first.
+     */
+    @Test
+    void findsAllRootSectorsMostLikelyFirst() throws IOException {
+        Set<Long> expected = new HashSet<>();
+        new ImageScanner(image, 2, BUFFER_SIZE, 0).scan(rootSector -> expected.add(rootSector.getOffset()));
+
+        List<Long> found = new ArrayList<>();
+        assertTrue(new PriorityScan(image, new ImageScanner(image, 2, BUFFER_SIZE, 0)).scan(rootSector -> found.add(rootSector.getOffset()), 0));
+        assertEquals(expected, new HashSet<>(found));
+        assertEquals(expected.size(), found.size());
+        assertEquals(Arrays.asList(0L, 512L, image.size() - 512), found.subList(0, 3));
+    }
+
+    /**
+     * After the time limit, the scan stops and reports the root sectors found so far.
+     */
+    @Test
+    void stopsAtTimeLimit() throws IOException {
+        List<Long> found = new ArrayList<>();
+        boolean complete = new PriorityScan(image, new ImageScanner(image, 2, BUFFER_SIZE, 0)).scan(rootSector -> {
+            found.add(rootSector.getOffset());
+            try {
+                // Exceed the time limit.
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 100);
+
+        assertFalse(complete);
+        assertEquals(Arrays.asList(0L), found);
+    }
+}
@@ -0,0 +1,120 @@
+package de.heiden.ataripart.image;
+
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ScanCache}.
+ */
+class ScanCacheTest {
+    /**
+     * Temporary directory for the image and its cache.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Hard disk image.
+     */
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = dir.resolve("disk.img");
+        new ImageGenerator(64 * 1024 * 1024, 3, 42).generate(file);
+    }
+
+    /**
+     * The cached results of an unchanged image are those of a fresh scan.
+     */
+    @Test
+    void unchangedImageUsesCache() throws IOException {
+        List<Long> expected = scan(false);
+        assertEquals(expected, scan(true));
+
+        try (ImageReader image = ImageReader.open(file, false)) {
+            ScanCache cache = ScanCache.open(image, ImageScanner.CHUNK_SIZE);
+            assertTrue(cache.isUnchanged());
+            assertEquals(expected, sorted(cache.getHits()));
+        }
+        assertEquals(expected, scan(true));
+    }
+
+    /**
+     * After one region has been changed, the cached scan finds the same root sectors as a fresh scan.
+     */
+    @Test
+    void changedRegionGetsRescanned() throws IOException {
+        List<Long> original = scan(true);
+
+        // Copy the root sector of the image into the third region.
+        ByteBuffer sector = ByteBuffer.allocate(512);
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            channel.read(sector, 0);
+            sector.flip();
+            channel.write(sector, 2L * ImageScanner.CHUNK_SIZE + 4096);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+
+        try (ImageReader image = ImageReader.open(file, false)) {
+            assertFalse(ScanCache.open(image, ImageScanner.CHUNK_SIZE).isUnchanged());
+        }
+        List<Long> expected = scan(false);
+        assertNotEquals(original, expected);
+        assertEquals(expected, scan(true));
+        assertEquals(expected, scan(true));
+    }
+
+    /**
+     * Scan the whole image.
+     *
+     * @param cached Use and update the cache?.
+     * @return Sorted offsets of the found root sectors.
+     */
+    private List<Long> scan(boolean cached) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (ImageReader image = ImageReader.open(file, false)) {
+            ScanCache cache = cached ? ScanCache.open(image, ImageScanner.CHUNK_SIZE) : null;
+            new ImageScanner(image, 2).scan(rootSector -> {
+                synchronized (result) {
+                    result.add(rootSector.getOffset());
+                }
+            }, cache);
+            if (cache != null && !cache.isUnchanged()) {
+                cache.save();
+            }
+        }
+        return sorted(result);
+    }
+
+    /**
+     * Sort offsets.
+     *
+     * @param offsets Offsets.
+     * @return Sorted copy of the offsets.
+     */
+    private static List<Long> sorted(List<Long> offsets) {
+        List<Long> result = new ArrayList<>(offsets);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package de.heiden.ataripart.image.digest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link DigestPipeline} and {@link Digest}.
+ */
+class DigestPipelineTest {
+    /**
+     * Executor for the digests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The digests of data passed in chunks of arbitrary size and runs of zeros
+     * are those of {@link MessageDigest} and {@link CRC32C} of the whole data.
+     */
+    @Test
+    void digestsMatchReferenceImplementations() throws IOException, NoSuchAlgorithmException {
+        Random random = new Random(42);
+        byte[] data = new byte[5 * 1024 * 1024 + 123];
+        random.nextBytes(data);
+        // Runs of zeros, passed via updateZeros.
+        int[][] zeros = {{1000, 70000}, {3 * 1024 * 1024, 2 * 1024 * 1024 + 5}};
+        for (int[] run : zeros) {
+            for (int i = run[0]; i < run[0] + run[1]; i++) {
+                data[i] = 0;
+            }
+        }
+
+        Map<String, String> digests;
+        try (DigestPipeline pipeline = new DigestPipeline(executor, Digest.sha256(), Digest.crc32c())) {
+            int position = 0;
+            for (int[] run : zeros) {
+                position = update(pipeline, data, position, run[0], random);
+                pipeline.updateZeros(run[1]);
+                position += run[1];
+            }
+            update(pipeline, data, position, data.length, random);
+            digests = pipeline.finish();
+        }
+
+        assertEquals(sha256(data), digests.get("SHA256"));
+        assertEquals(crc32c(data), digests.get("CRC32C"));
+    }
+
+    /**
+     * Pass data to the pipeline in chunks of random size, some direct, some heap buffers.
+     *
+     * @param pipeline Pipeline.
+     * @param data Data.
+     * @param start Start of the data to pass.
+     * @param end End of the data to pass.
+     * @param random Random generator for the chunk sizes.
+     * @return End.
+     */
+    private static int update(DigestPipeline pipeline, byte[] data, int start, int end, Random random) throws IOException {
+        for (int position = start; position < end; ) {
+            int length = Math.min(1 + random.nextInt(3 * 1024 * 1024), end - position);
+            ByteBuffer chunk = random.nextBoolean() ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            chunk.put(data, position, length).flip();
+            pipeline.update(chunk);
+            position += length;
+        }
+        return end;
+    }
+
+    /**
+     * SHA-256 as lower case hex string.
+     *
+     * @param data Data.
+     */
+    private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+        StringBuilder result = new StringBuilder(64);
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+
+    /**
+     * CRC32C as lower case hex string.
+     *
+     * @param data Data.
+     */
+    private static String crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return String.format("%08x", crc.getValue());
+    }
+}
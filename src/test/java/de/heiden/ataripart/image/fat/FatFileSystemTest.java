@@ -0,0 +1,99 @@
+package de.heiden.ataripart.image.fat;
+
+import de.heiden.ataripart.image.BootSector;
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Tests for {@link FatFileSystem}.
+ */
+class FatFileSystemTest {
+    /**
+     * Temporary directory for the image and the extracted files.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * A file with a too short cluster chain gets reported and copied as far as possible,
+     * the other files get copied completely.
+     */
+    @Test
+    void copyAllContinuesAfterTruncatedFile() throws IOException {
+        Path file = dir.resolve("disk.img");
+        ImageGenerator generator = new ImageGenerator(32 * 1024 * 1024, 1, 42);
+        generator.setNoise(0);
+        generator.generate(file);
+
+        // Cut the cluster chain of a file after its first cluster.
+        DirectoryEntry broken = null;
+        int clusterSize;
+        try (ImageReader image = ImageReader.open(file, false)) {
+            Partition partition = partition(image);
+            FatFileSystem fileSystem = new FatFileSystem(image, partition);
+            clusterSize = fileSystem.getClusterSize();
+            for (DirectoryEntry entry : fileSystem.getRootDirectory()) {
+                if (!entry.isDirectory() && entry.getSize() > clusterSize) {
+                    broken = entry;
+                    break;
+                }
+            }
+            assertNotNull(broken, "No file with more than one cluster.");
+
+            BootSector bootSector = partition.getBootSector();
+            long fatOffset = partition.getAbsoluteStart() + (long) bootSector.getReservedSectors() * bootSector.getBytesPerSector();
+            ByteBuffer endOfChain = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(0, (short) 0xFFFF);
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.write(endOfChain, fatOffset + 2L * broken.getCluster());
+            }
+        }
+
+        Path destination = Files.createDirectory(dir.resolve("c"));
+        List<Path> truncated = new ArrayList<>();
+        try (ImageReader image = ImageReader.open(file, false)) {
+            FatFileSystem fileSystem = new FatFileSystem(image, partition(image));
+            int files = fileSystem.copyAll(destination, truncated::add);
+
+            assertEquals(singletonList(destination.resolve(broken.getName())), truncated);
+            assertEquals(clusterSize, Files.size(destination.resolve(broken.getName())));
+            int expected = 0;
+            for (DirectoryEntry entry : fileSystem.getRootDirectory()) {
+                if (entry.isDirectory()) {
+                    expected += fileSystem.getDirectory(entry).stream().filter(e -> !e.isDirectory()).count();
+                } else {
+                    expected++;
+                    if (!entry.getName().equals(broken.getName())) {
+                        assertEquals(entry.getSize(), Files.size(destination.resolve(entry.getName())));
+                    }
+                }
+            }
+            assertEquals(expected, files);
+        }
+    }
+
+    /**
+     * First partition of the image.
+     *
+     * @param image Hard disk image.
+     */
+    private static Partition partition(ImageReader image) throws IOException {
+        return image.readRootSectors().get(0).getRealPartitions().get(0);
+    }
+}
@@ -0,0 +1,246 @@
+package de.heiden.ataripart.image.gzip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip tests for {@link GzipImageReader} and {@link GzipIndex} against the output of {@link GZIPOutputStream}.
+ */
+class GzipImageReaderTest {
+    /**
+     * Deflate block type of stored blocks.
+     */
+    private static final int STORED = 0;
+
+    /**
+     * Deflate block type of blocks with fixed huffman codes.
+     */
+    private static final int FIXED = 1;
+
+    /**
+     * Deflate block type of blocks with dynamic huffman codes.
+     */
+    private static final int DYNAMIC = 2;
+
+    /**
+     * Temporary directory for the images and their indexes.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Stored blocks only, as written with compression level 0.
+     */
+    @Test
+    void storedBlocks() throws IOException {
+        byte[] data = data(3 * GzipIndex.SPAN + 12345, 1);
+        byte[] gzip = gzip(data, Deflater.NO_COMPRESSION, 0);
+        assertEquals(STORED, firstBlockType(gzip));
+
+        assertReads(write("stored.img.gz", gzip), data);
+    }
+
+    /**
+     * Blocks with fixed huffman codes, as written for short text between sync flushes.
+     */
+    @Test
+    void fixedBlocks() throws IOException {
+        byte[] data = text(3 * GzipIndex.SPAN + 777);
+        byte[] gzip = gzip(data, Deflater.DEFAULT_COMPRESSION, 100);
+        assertEquals(FIXED, firstBlockType(gzip));
+
+        assertReads(write("fixed.img.gz", gzip), data);
+    }
+
+    /**
+     * Blocks with dynamic huffman codes, as written for long mixed data.
+     */
+    @Test
+    void dynamicBlocks() throws IOException {
+        byte[] data = data(8 * GzipIndex.SPAN + 4321, 2);
+        byte[] gzip = gzip(data, Deflater.DEFAULT_COMPRESSION, 0);
+        assertEquals(DYNAMIC, firstBlockType(gzip));
+
+        assertReads(write("dynamic.img.gz", gzip), data);
+    }
+
+    /**
+     * Several gzip members, including an empty one, which get concatenated.
+     */
+    @Test
+    void multipleMembers() throws IOException {
+        byte[] first = data(2 * GzipIndex.SPAN + 99, 3);
+        byte[] second = text(GzipIndex.SPAN + 5);
+        byte[] third = data(GzipIndex.SPAN / 2, 4);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        gzip.write(gzip(first, Deflater.DEFAULT_COMPRESSION, 0));
+        gzip.write(gzip(new byte[0], Deflater.DEFAULT_COMPRESSION, 0));
+        gzip.write(gzip(second, Deflater.DEFAULT_COMPRESSION, 100));
+        gzip.write(gzip(third, Deflater.NO_COMPRESSION, 0));
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(first);
+        data.write(second);
+        data.write(third);
+
+        Path file = write("members.img.gz", gzip.toByteArray());
+        try (GzipIndex index = GzipIndex.open(file)) {
+            assertEquals(4, index.getCheckpoints().stream().filter(Checkpoint::isMember).count());
+        }
+        assertReads(file, data.toByteArray());
+    }
+
+    /**
+     * Read the whole image, at and around each checkpoint and random ranges and compare them with the uncompressed data.
+     *
+     * @param file Gzip compressed image.
+     * @param data Uncompressed image.
+     */
+    private static void assertReads(Path file, byte[] data) throws IOException {
+        List<Checkpoint> checkpoints;
+        try (GzipIndex index = GzipIndex.open(file)) {
+            checkpoints = index.getCheckpoints();
+        }
+        // Besides the start of each member, there have to be checkpoints at block boundaries.
+        assertTrue(checkpoints.stream().anyMatch(checkpoint -> !checkpoint.isMember()), "No checkpoint at block boundary.");
+
+        try (GzipImageReader image = new GzipImageReader(file)) {
+            assertEquals(data.length, image.size());
+            assertRead(image, data, 0, data.length);
+
+            for (Checkpoint checkpoint : checkpoints) {
+                long position = checkpoint.getPosition();
+                // Exactly at the checkpoint.
+                assertRead(image, data, position, 4096);
+                // Straddling the checkpoint.
+                assertRead(image, data, position - 1000, 2000);
+                // Ending exactly at the checkpoint.
+                assertRead(image, data, position - 512, 512);
+            }
+
+            Random random = new Random(42);
+            for (int i = 0; i < 100; i++) {
+                int length = 1 + random.nextInt(3 * GzipIndex.SPAN / 2);
+                assertRead(image, data, random.nextInt(data.length), length);
+            }
+            // Beyond the end of the image.
+            assertRead(image, data, data.length - 100, 1000);
+        }
+    }
+
+    /**
+     * Read a range of the image and compare it with the uncompressed data.
+     *
+     * @param image Image.
+     * @param data Uncompressed image.
+     * @param position Position of the range. Gets clamped to the image.
+     * @param length Length of the range.
+     */
+    private static void assertRead(GzipImageReader image, byte[] data, long position, int length) throws IOException {
+        int start = (int) Math.max(0, Math.min(position, data.length));
+        ByteBuffer buffer = image.read(start, length, null);
+        byte[] expected = Arrays.copyOfRange(data, start, Math.min(start + length, data.length));
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual, "Range " + start + " + " + length);
+    }
+
+    /**
+     * Mixed data: Alternating random and text blocks.
+     *
+     * @param length Length.
+     * @param seed Seed for random blocks.
+     */
+    private static byte[] data(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] text = text(length);
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i += 4096) {
+            int num = Math.min(4096, length - i);
+            if (random.nextBoolean()) {
+                byte[] noise = new byte[num];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, result, i, num);
+            } else {
+                System.arraycopy(text, i, result, i, num);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compressible text.
+     *
+     * @param length Length.
+     */
+    private static byte[] text(int length) {
+        StringBuilder result = new StringBuilder(length + 64);
+        for (int i = 0; result.length() < length; i++) {
+            result.append("Atari partition ").append(i % 977).append(" cluster ").append(i % 13).append('\n');
+        }
+        return Arrays.copyOf(result.toString().getBytes(US_ASCII), length);
+    }
+
+    /**
+     * Gzip compress data with {@link GZIPOutputStream}.
+     *
+     * @param data Uncompressed data.
+     * @param level Compression level.
+     * @param flush Number of bytes after which to sync flush. 0 for no flushes.
+     */
+    private static byte[] gzip(byte[] data, int level, int flush) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(result, 64 * 1024, flush > 0) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            if (flush > 0) {
+                for (int i = 0; i < data.length; i += flush) {
+                    out.write(data, i, Math.min(flush, data.length - i));
+                    out.flush();
+                }
+            } else {
+                out.write(data);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Type of the first deflate block of a gzip file with a plain 10 byte header, as written by {@link GZIPOutputStream}.
+     *
+     * @param gzip Gzip file.
+     */
+    private static int firstBlockType(byte[] gzip) {
+        return (gzip[10] >> 1) & 3;
+    }
+
+    /**
+     * Write a gzip file to the temporary directory.
+     *
+     * @param name File name.
+     * @param gzip Contents.
+     */
+    private Path write(String name, byte[] gzip) throws IOException {
+        return Files.write(dir.resolve(name), gzip);
+    }
+}
@@ -0,0 +1,169 @@
+package de.heiden.ataripart.output;
+
+import de.heiden.ataripart.image.ImageReader;
+import de.heiden.ataripart.image.Partition;
+import de.heiden.ataripart.image.RootSector;
+import de.heiden.ataripart.image.ahdi.ImageGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CsvWriter} and {@link JsonLinesWriter}.
+ */
+class RecordWriterTest {
+    /**
+     * Role with all chars needing escaping in CSV or JSON, and chars outside of ASCII.
+     */
+    private static final String ROLE = "a\"b\\c,d\r\ne\u0001fé😀";
+
+    /**
+     * Number of columns of the CSV output.
+     */
+    private static final int COLUMNS = 30;
+
+    /**
+     * Temporary directory for the image.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Root sectors of the image.
+     */
+    private List<RootSector> rootSectors;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path file = dir.resolve("disk.img");
+        new ImageGenerator(32 * 1024 * 1024, 3, 42).generate(file);
+        try (ImageReader image = ImageReader.open(file, false)) {
+            rootSectors = image.readRootSectors();
+        }
+        assertFalse(rootSectors.isEmpty());
+    }
+
+    /**
+     * Each CSV row has all columns, and quotes, commas and line breaks in fields round trip.
+     */
+    @Test
+    void csvEscapesFields() throws IOException {
+        List<List<String>> rows = parseCsv(write(OutputFormat.CSV));
+
+        assertEquals(COLUMNS, rows.get(0).size());
+        assertEquals("role", rows.get(0).get(0));
+        assertEquals("name", rows.get(0).get(8));
+        int partitions = 0;
+        for (List<String> row : rows.subList(1, rows.size())) {
+            assertEquals(COLUMNS, row.size(), row.toString());
+            assertEquals(ROLE, row.get(0));
+            assertEquals(ROLE + partitions, row.get(8));
+            partitions++;
+        }
+        assertEquals(partitions(), partitions);
+    }
+
+    /**
+     * Each root sector is a single JSON line, with quotes, backslashes and control chars escaped.
+     */
+    @Test
+    void jsonLinesEscapeStrings() throws IOException {
+        String output = write(OutputFormat.JSONL);
+        String role = "\"a\\\"b\\\\c,d\\u000d\\u000ae\\u0001fé😀\"";
+
+        String[] lines = output.split("\n", -1);
+        assertEquals(rootSectors.size() + 1, lines.length);
+        assertEquals("", lines[rootSectors.size()]);
+        int partitions = 0;
+        for (int i = 0; i < rootSectors.size(); i++) {
+            String line = lines[i];
+            assertTrue(line.startsWith("{\"role\":" + role + ",\"xgm\":"), line);
+            assertTrue(line.endsWith("]}"), line);
+            for (int j = 0; j < rootSectors.get(i).getPartitions().size(); j++) {
+                assertTrue(line.contains("{\"name\":" + role.substring(0, role.length() - 1) + partitions + "\","), line);
+                partitions++;
+            }
+        }
+        assertEquals(partitions(), partitions);
+    }
+
+    /**
+     * Write all root sectors and their partitions, with {@link #ROLE} as role and as prefix of the partition names.
+     *
+     * @param format Output format.
+     * @return Output.
+     */
+    private String write(OutputFormat format) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (RecordWriter writer = RecordWriter.create(format, result)) {
+            int number = 0;
+            for (RootSector rootSector : rootSectors) {
+                writer.beginRootSector(ROLE, rootSector);
+                for (Partition partition : rootSector.getPartitions()) {
+                    writer.partition(ROLE + number++, partition);
+                }
+                writer.endRootSector();
+            }
+        }
+        return result.toString(UTF_8.name());
+    }
+
+    /**
+     * Number of partitions of all root sectors.
+     */
+    private int partitions() {
+        return rootSectors.stream().mapToInt(rootSector -> rootSector.getPartitions().size()).sum();
+    }
+
+    /**
+     * Parse CSV (RFC 4180).
+     *
+     * @param csv CSV with CRLF as record separator.
+     * @return Rows.
+     */
+    private static List<List<String>> parseCsv(String csv) {
+        List<List<String>> result = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' && i + 1 < csv.length() && csv.charAt(i + 1) == '\n') {
+                row.add(field.toString());
+                field.setLength(0);
+                result.add(row);
+                row = new ArrayList<>();
+                i++;
+            } else {
+                field.append(c);
+            }
+        }
+        assertTrue(row.isEmpty() && field.length() == 0 && !quoted, "Incomplete last row.");
+        return result;
+    }
+}